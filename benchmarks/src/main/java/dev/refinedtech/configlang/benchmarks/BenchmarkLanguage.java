@@ -0,0 +1,178 @@
+package dev.refinedtech.configlang.benchmarks;
+
+import dev.refinedtech.configlang.ConfigLang;
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.io.FileConfigSection;
+import dev.refinedtech.configlang.scope.Scope;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The if/condition/operation/exec language of TestLanguage, along with generators for large trees written in it.
+ * */
+final class BenchmarkLanguage {
+
+    private BenchmarkLanguage() {
+    }
+
+    static ConfigLang create() {
+        ConfigLang lang = new ConfigLang();
+
+        lang.submit(new ConfigStructure("exec", ConfigStructure.keyStructure("message")) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                scope.variables().set("last", section.getObject("message", null));
+                return null;
+            }
+        });
+
+        lang.submit(new ConfigStructure("operation",
+                ConfigStructure.keyStructure("left"),
+                ConfigStructure.keyStructure("operator"),
+                ConfigStructure.keyStructure("right")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                Object left = value(lang.getData(section, "left", scope.childScope("left"), args));
+                Object right = value(lang.getData(section, "right", scope.childScope("right"), args));
+                String operator = String.valueOf(value(lang.getData(section, "operator", scope.childScope("operator"), args)));
+
+                if (left instanceof Number && right instanceof Number) {
+                    double leftDouble = ((Number) left).doubleValue();
+                    double rightDouble = ((Number) right).doubleValue();
+                    switch (operator) {
+                        case "+": return leftDouble + rightDouble;
+                        case "-": return leftDouble - rightDouble;
+                        case "*": return leftDouble * rightDouble;
+                        case "<": return leftDouble < rightDouble;
+                        default: return false;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            protected double runDouble(ConfigSection section, Scope scope, Object... args) {
+                String operator = String.valueOf(section.getObject("operator", null));
+                switch (operator) {
+                    case "+": return lang.getDouble(section, "left", scope, args) + lang.getDouble(section, "right", scope, args);
+                    case "-": return lang.getDouble(section, "left", scope, args) - lang.getDouble(section, "right", scope, args);
+                    case "*": return lang.getDouble(section, "left", scope, args) * lang.getDouble(section, "right", scope, args);
+                    default: return super.runDouble(section, scope, args);
+                }
+            }
+        });
+
+        lang.submit(new ConfigStructure("condition") {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return lang.streamChildren(section, scope.childScope("condition"))
+                        .allMatch(result -> !(result instanceof Boolean) || (Boolean) result);
+            }
+        });
+
+        lang.submit(new ConfigStructure("if", lang.get("condition").orElseThrow()) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                Object res = lang.execute(section.getConfigSection("condition").orElseThrow(), scope.childScope("if"));
+
+                if (res instanceof Boolean && (Boolean) res && section.isConfigSection("then")) {
+                    lang.executeChildrenRecursive(section.getConfigSection("then").orElseThrow(), scope.childScope("then"));
+                } else if (section.isConfigSection("else")) {
+                    lang.executeChildrenRecursive(section.getConfigSection("else").orElseThrow(), scope.childScope("else"));
+                }
+                return null;
+            }
+        });
+
+        return lang;
+    }
+
+    /**
+     * Unwraps the optionals and single element result lists that {@link ConfigLang#getData} returns.
+     * */
+    private static Object value(Object data) {
+        if (data instanceof Optional) return ((Optional<?>) data).orElse(null);
+        if (data instanceof List && ((List<?>) data).size() == 1) return value(((List<?>) data).get(0));
+        return data;
+    }
+
+    /**
+     * @return an operation nested depth times in the left operand, computing 1 + 1 + ... + 1
+     * */
+    static FileConfigSection operationChain(int depth) {
+        FileConfigSection root = new FileConfigSection("operation", "operation");
+        FileConfigSection operation = root;
+
+        for (int i = 0; i < depth; i++) {
+            operation.set("operator", "+");
+            operation.set("right", 1);
+            if (i == depth - 1) {
+                operation.set("left", 1);
+                break;
+            }
+
+            FileConfigSection left = operation.child("left");
+            FileConfigSection next = left.child("operation");
+            left.set("operation", next);
+            operation.set("left", left);
+            operation = next;
+        }
+        return root;
+    }
+
+    /**
+     * @return a section with width exec children
+     * */
+    static FileConfigSection fanOut(int width) {
+        FileConfigSection root = new FileConfigSection("script", "script");
+        for (int i = 0; i < width; i++) {
+            FileConfigSection block = root.child("block" + i);
+            FileConfigSection exec = block.child("exec");
+            exec.set("message", "message " + i);
+            block.set("exec", exec);
+            root.set("block" + i, block);
+        }
+        return root;
+    }
+
+    /**
+     * @return an if whose condition is an operation chain of the given depth, with exec blocks in both branches
+     * */
+    static FileConfigSection ifTree(int depth) {
+        FileConfigSection section = new FileConfigSection("if", "if");
+
+        FileConfigSection condition = section.child("condition");
+        FileConfigSection operation = condition.child("operation");
+        FileConfigSection left = operation.child("left");
+        left.set("operation", operationChain(depth));
+        operation.set("left", left);
+        operation.set("operator", "<");
+        operation.set("right", depth / 2);
+        condition.set("operation", operation);
+        section.set("condition", condition);
+
+        section.set("then", fanOut(4));
+        section.set("else", fanOut(4));
+        return section;
+    }
+
+    static Scope scope(int variables) {
+        Scope scope = new Scope("root");
+        for (int i = 0; i < variables; i++) {
+            scope.variables().set("variable" + i, i);
+        }
+        return scope;
+    }
+}
@@ -0,0 +1,101 @@
+package dev.refinedtech.configlang.benchmarks;
+
+import dev.refinedtech.configlang.CompiledProgram;
+import dev.refinedtech.configlang.ConfigLang;
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.scope.Scope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of generated programs, both interpreted through {@link ConfigLang} and compiled.
+ * */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class ExecuteBenchmark {
+
+    @Param({"8", "64"})
+    public int depth;
+
+    @Param({"16", "256"})
+    public int width;
+
+    private ConfigLang lang;
+    private Scope scope;
+
+    private ConfigSection operation;
+    private ConfigSection ifTree;
+    private ConfigSection fanOut;
+
+    private CompiledProgram compiledOperation;
+    private CompiledProgram compiledIfTree;
+    private CompiledProgram compiledFanOut;
+
+    @Setup
+    public void setup() {
+        this.lang = BenchmarkLanguage.create();
+        this.scope = BenchmarkLanguage.scope(64);
+
+        this.operation = BenchmarkLanguage.operationChain(this.depth);
+        this.ifTree = BenchmarkLanguage.ifTree(this.depth);
+        this.fanOut = BenchmarkLanguage.fanOut(this.width);
+
+        this.compiledOperation = this.lang.compile(this.operation);
+        this.compiledIfTree = this.lang.compile(this.ifTree);
+        this.compiledFanOut = this.lang.compile(this.fanOut);
+    }
+
+    @Benchmark
+    public Object operationChain() {
+        return this.lang.execute(this.operation, this.scope);
+    }
+
+    @Benchmark
+    public double operationChainDouble() {
+        return this.lang.executeDouble(this.operation, this.scope);
+    }
+
+    @Benchmark
+    public Object operationChainCompiled() {
+        return this.compiledOperation.execute(this.scope);
+    }
+
+    @Benchmark
+    public Object ifTree() {
+        return this.lang.execute(this.ifTree, this.scope);
+    }
+
+    @Benchmark
+    public Object ifTreeCompiled() {
+        return this.compiledIfTree.execute(this.scope);
+    }
+
+    @Benchmark
+    public Object executeChildren() {
+        return this.lang.executeChildrenRecursive(this.fanOut, this.scope);
+    }
+
+    @Benchmark
+    public Object executeChildrenCompiled() {
+        return this.compiledFanOut.executeChildrenRecursive(this.scope);
+    }
+
+    @Benchmark
+    public Object compile() {
+        return this.lang.compile(this.ifTree);
+    }
+}
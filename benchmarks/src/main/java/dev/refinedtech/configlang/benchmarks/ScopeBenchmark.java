@@ -0,0 +1,112 @@
+package dev.refinedtech.configlang.benchmarks;
+
+import dev.refinedtech.configlang.ConfigLang;
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.scope.Scope;
+import dev.refinedtech.configlang.variables.VariableSlot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Child scopes of large scopes, variable lookups through scope chains and tree printing.
+ * */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class ScopeBenchmark {
+
+    @Param({"16", "1024"})
+    public int variables;
+
+    private Scope root;
+    private Scope nested;
+    private String lastVariable;
+    private ConfigSection tree;
+    private Scope slotted;
+    private VariableSlot lastSlot;
+
+    @Setup
+    public void setup() {
+        this.root = BenchmarkLanguage.scope(this.variables);
+        this.root.variables().set("player", new Player(new Stats(20)));
+
+        Scope nested = this.root;
+        for (int i = 0; i < 16; i++) {
+            nested = nested.childScope("child" + i);
+        }
+        this.nested = nested;
+        this.lastVariable = "variable" + (this.variables - 1);
+        this.tree = BenchmarkLanguage.ifTree(16);
+
+        ConfigLang lang = BenchmarkLanguage.create();
+        Scope slotted = lang.newScope("root");
+        for (int i = 0; i < this.variables; i++) {
+            slotted.variables().set(lang.slot("variable" + i), i);
+        }
+        for (int i = 0; i < 16; i++) {
+            slotted = slotted.childScope("child" + i);
+        }
+        this.slotted = slotted;
+        this.lastSlot = lang.slot(this.lastVariable);
+    }
+
+    @Benchmark
+    public Scope childScope() {
+        return this.root.childScope("child");
+    }
+
+    @Benchmark
+    public Scope isolatedScope() {
+        return this.root.isolatedScope("isolated");
+    }
+
+    @Benchmark
+    public Optional<Object> nestedLookup() {
+        return this.nested.variables().getRaw(this.lastVariable);
+    }
+
+    @Benchmark
+    public Optional<Object> nestedSlotLookup() {
+        return this.slotted.variables().getRaw(this.lastSlot);
+    }
+
+    @Benchmark
+    public Optional<Object> parseVariable() {
+        return this.nested.variables().parseVariableRaw("player.stats.health");
+    }
+
+    @Benchmark
+    public String treeString() {
+        return this.tree.treeString();
+    }
+
+    public static final class Player {
+        public final Stats stats;
+
+        Player(Stats stats) {
+            this.stats = stats;
+        }
+    }
+
+    public static final class Stats {
+        public final int health;
+
+        Stats(int health) {
+            this.health = health;
+        }
+    }
+}
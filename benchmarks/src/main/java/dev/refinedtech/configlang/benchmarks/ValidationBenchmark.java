@@ -0,0 +1,78 @@
+package dev.refinedtech.configlang.benchmarks;
+
+import dev.refinedtech.configlang.CompactConfigSection;
+import dev.refinedtech.configlang.ConfigLang;
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.io.FileConfigSection;
+import dev.refinedtech.configlang.scope.Scope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConfigStructure#matches} of an unchanged section, which is answered from the cached validation,
+ * of a section that is modified before every check,
+ * and of a compact section against alternating structures, which is answered from the precomputed key bitsets.
+ * */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class ValidationBenchmark {
+
+    @Param({"8", "64"})
+    public int depth;
+
+    private ConfigStructure structure;
+    private ConfigStructure twin;
+    private FileConfigSection section;
+    private CompactConfigSection compact;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        ConfigLang lang = BenchmarkLanguage.create();
+        this.structure = lang.get("if").orElseThrow();
+        this.section = BenchmarkLanguage.ifTree(this.depth);
+        this.compact = CompactConfigSection.of(this.section);
+        // Toggled by matchesModified, so the section keeps its size
+        this.section.set("counter", 0);
+
+        // Validations are cached per structure, so alternating with an equal structure validates every time
+        this.twin = new ConfigStructure("if", lang.get("condition").orElseThrow()) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return null;
+            }
+        };
+    }
+
+    @Benchmark
+    public String matches() {
+        return this.structure.matches(this.section);
+    }
+
+    @Benchmark
+    public String matchesModified() {
+        this.section.set("counter", this.counter++ & 1);
+        return this.structure.matches(this.section);
+    }
+
+    @Benchmark
+    public String matchesCompact() {
+        ConfigStructure structure = (this.counter++ & 1) == 0 ? this.structure : this.twin;
+        return structure.matches(this.compact);
+    }
+}
@@ -0,0 +1,118 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.scope.Scope;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Budget limits an execution to a number of structure invocations, a nesting depth and a deadline, and lets it be cancelled.
+ * <p>
+ * A budget is attached to a scope with {@link Scope#budgetedScope(String, Budget)} and inherited by the scope's child scopes.
+ * The {@link ConfigLang} checks it each time it dispatches a section to a structure, and throws a
+ * {@link BudgetExceededException} once the budget is exhausted, unwinding the whole execution.
+ * Long running structures can call {@link #check()} themselves to be cancelled sooner.
+ * Create a new budget for every execution, the invocations and the deadline are counted from its creation.
+ * <p>
+ * The depth is an atomic counter of the budget, so it stays correct when the continuations of asynchronous executions
+ * enter and exit it on other threads. Executions that run at the same time on the same budget add up their depths,
+ * so parallel executions {@link #fork() fork} the budget for every branch, which counts the depth of the branch on its own.
+ * */
+@SuppressWarnings("unused")
+public final class Budget {
+
+    /**
+     * The deadline is only checked every this many invocations, to keep reading the clock off the hot path.
+     * */
+    private static final int DEADLINE_CHECK_MASK = 63;
+
+    private final Limits limits;
+    private final AtomicInteger depth;
+
+    /**
+     * @param maxInvocations the maximum number of structure invocations, or 0 for no limit
+     * @param maxDepth the maximum number of nested structure invocations, or 0 for no limit
+     * @param timeout the maximum time the execution may take, or null for no limit
+     * */
+    public Budget(long maxInvocations, int maxDepth, Duration timeout) {
+        this(new Limits(maxInvocations, maxDepth, timeout == null ? 0 : System.nanoTime() + timeout.toNanos(), timeout != null), 0);
+    }
+
+    private Budget(Limits limits, int depth) {
+        this.limits = limits;
+        this.depth = new AtomicInteger(depth);
+    }
+
+    /**
+     * @return a budget that shares the limits, invocations and cancellation of this budget, starting at its current depth,
+     * for a part of the execution that runs alongside the rest of it on another thread
+     * */
+    public Budget fork() {
+        return new Budget(this.limits, this.depth.get());
+    }
+
+    /**
+     * Cancels the execution, it stops at the next structure invocation or {@link #check()}.
+     * Can be called from any thread.
+     * */
+    public void cancel() {
+        this.limits.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.limits.cancelled;
+    }
+
+    public long invocations() {
+        return this.limits.invocations.get();
+    }
+
+    /**
+     * @throws BudgetExceededException if the execution was cancelled or passed its deadline
+     * */
+    public void check() {
+        Limits limits = this.limits;
+        if (limits.cancelled) throw new BudgetExceededException(BudgetExceededException.Reason.CANCELLED);
+        if (limits.hasDeadline && System.nanoTime() - limits.deadline > 0) throw new BudgetExceededException(BudgetExceededException.Reason.DEADLINE);
+    }
+
+    void enter() {
+        Limits limits = this.limits;
+        long invocations = limits.invocations.incrementAndGet();
+        if (limits.maxInvocations > 0 && invocations > limits.maxInvocations)
+            throw new BudgetExceededException(BudgetExceededException.Reason.INVOCATIONS);
+        if (limits.cancelled)
+            throw new BudgetExceededException(BudgetExceededException.Reason.CANCELLED);
+        if (limits.hasDeadline && (invocations & DEADLINE_CHECK_MASK) == 1 && System.nanoTime() - limits.deadline > 0)
+            throw new BudgetExceededException(BudgetExceededException.Reason.DEADLINE);
+
+        int depth = this.depth.incrementAndGet();
+        if (limits.maxDepth > 0 && depth > limits.maxDepth) {
+            // Not entered, so exit is not called for it
+            this.depth.decrementAndGet();
+            throw new BudgetExceededException(BudgetExceededException.Reason.DEPTH);
+        }
+    }
+
+    void exit() {
+        this.depth.decrementAndGet();
+    }
+
+    private static final class Limits {
+
+        private final long maxInvocations;
+        private final int maxDepth;
+        private final long deadline;
+        private final boolean hasDeadline;
+        private final AtomicLong invocations = new AtomicLong();
+        private volatile boolean cancelled;
+
+        private Limits(long maxInvocations, int maxDepth, long deadline, boolean hasDeadline) {
+            this.maxInvocations = maxInvocations;
+            this.maxDepth = maxDepth;
+            this.deadline = deadline;
+            this.hasDeadline = hasDeadline;
+        }
+    }
+}
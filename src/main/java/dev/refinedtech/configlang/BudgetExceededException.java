@@ -0,0 +1,34 @@
+package dev.refinedtech.configlang;
+
+/**
+ * Thrown by an execution that exhausted its {@link Budget}.
+ * */
+@SuppressWarnings("unused")
+public class BudgetExceededException extends RuntimeException {
+
+    public enum Reason {
+        INVOCATIONS("The execution exceeded its maximum number of structure invocations"),
+        DEPTH("The execution exceeded its maximum depth"),
+        DEADLINE("The execution passed its deadline"),
+        CANCELLED("The execution was cancelled");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final Reason reason;
+
+    public BudgetExceededException(Reason reason) {
+        super(reason.message, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+}
@@ -0,0 +1,428 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.io.ConfigWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A frozen ConfigSection with a small memory footprint, meant for large trees that are loaded once and executed many times.
+ * <p>
+ * Keys are interned and kept in flat arrays, numbers and booleans are stored unboxed in a primitive slot,
+ * and the path is computed from the parent instead of being stored, unless it can not be derived from it.
+ * Compact sections can not be modified, use {@link #of(ConfigSection)} to freeze a copy of another section.
+ * */
+@SuppressWarnings("unused")
+public final class CompactConfigSection extends ConfigSection {
+
+    private static final byte OBJECT = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+
+    /**
+     * Sections with at most this many keys are searched linearly instead of through the sorted index.
+     * */
+    private static final int LINEAR_SEARCH_LIMIT = 8;
+
+    private final CompactConfigSection parent;
+    private final String name;
+    private final String path;
+    private final String[] keys;
+    private final int[] sorted;
+    private final byte[] types;
+    private final long[] primitives;
+    private final Object[] objects;
+
+    /**
+     * Bitsets of the {@link Schema} ids of the keys and of the keys holding a section,
+     * only covering the ids that were given out before this section was created.
+     * */
+    private final long[] keyBits;
+    private final long[] sectionBits;
+    private final int keyIds;
+
+    /**
+     * Copies the keys of the source, leaving its child sections in place to be copied by {@link #of(ConfigSection)}.
+     *
+     * @param path the path of the source
+     * @param parentPath the path of the source of the parent, or null for the root
+     * */
+    private CompactConfigSection(CompactConfigSection parent, ConfigSection source, String path, String parentPath) {
+        this.parent = parent;
+        this.name = source.getName().intern();
+        this.path = parentPath != null && isChildPath(path, parentPath, this.name) ? null : path;
+
+        Set<String> keys = source.getKeys(false);
+        int size = keys.size();
+        this.keys = new String[size];
+        this.types = new byte[size];
+
+        long[] primitives = null;
+        Object[] objects = null;
+
+        int index = 0;
+        for (String key : keys) {
+            this.keys[index] = key.intern();
+
+            Optional<ConfigSection> section = source.getConfigSection(key);
+            Object value = section.isPresent() ? section.get() : source.getObject(key).orElse(null);
+
+            byte type = typeOf(value);
+            this.types[index] = type;
+            if (type == OBJECT) {
+                if (objects == null) objects = new Object[size];
+                objects[index] = value;
+            } else {
+                if (primitives == null) primitives = new long[size];
+                primitives[index] = bitsOf(type, value);
+            }
+            index++;
+        }
+
+        this.primitives = primitives;
+        this.objects = objects;
+
+        // Ids given out while the bitsets are computed are left out, so they are only trusted below the count
+        int keyIds = Schema.count();
+        long[] keyBits = Schema.EMPTY;
+        long[] sectionBits = Schema.EMPTY;
+        for (int i = 0; i < size; i++) {
+            int id = Schema.find(this.keys[i]);
+            if (id == -1 || id >= keyIds) continue;
+
+            keyBits = Schema.set(keyBits, id);
+            if (this.types[i] == OBJECT && this.objects[i] instanceof ConfigSection) sectionBits = Schema.set(sectionBits, id);
+        }
+        this.keyBits = keyBits;
+        this.sectionBits = sectionBits;
+        this.keyIds = keyIds;
+        this.sorted = size > LINEAR_SEARCH_LIMIT ? sortedIndex(this.keys) : null;
+    }
+
+    /**
+     * Creates a frozen copy of the section and all of its children.
+     * */
+    public static CompactConfigSection of(ConfigSection section) {
+        if (section instanceof CompactConfigSection) return (CompactConfigSection) section;
+
+        String path = section.getPath();
+        CompactConfigSection root = new CompactConfigSection(null, section, path, null);
+
+        // Depth first on the work stack of the thread, with the value of a frame being the next key of its section to copy
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(root, path, 0);
+            while (stack.size() > base) {
+                CompactConfigSection compact = (CompactConfigSection) stack.first();
+                int index = stack.value();
+                if (index == compact.keys.length) {
+                    stack.pop();
+                    continue;
+                }
+                stack.value(index + 1);
+
+                if (compact.types[index] != OBJECT || !(compact.objects[index] instanceof ConfigSection)) continue;
+
+                ConfigSection source = (ConfigSection) compact.objects[index];
+                String childPath = source.getPath();
+                CompactConfigSection child = new CompactConfigSection(compact, source, childPath, (String) stack.second());
+                compact.objects[index] = child;
+                stack.push(child, childPath, 0);
+            }
+        } finally {
+            stack.truncate(base);
+        }
+        return root;
+    }
+
+    /**
+     * @return whether the path is the path of a child of the name below the parent path, without building that path
+     * */
+    private static boolean isChildPath(String path, String parentPath, String name) {
+        if (parentPath.isEmpty()) return path.equals(name);
+
+        return path.length() == parentPath.length() + 1 + name.length()
+                && path.startsWith(parentPath)
+                && path.charAt(parentPath.length()) == '.'
+                && path.endsWith(name);
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof Integer) return INT;
+        if (value instanceof Long) return LONG;
+        if (value instanceof Double) return DOUBLE;
+        if (value instanceof Boolean) return BOOLEAN;
+        return OBJECT;
+    }
+
+    private static long bitsOf(byte type, Object value) {
+        switch (type) {
+            case INT:
+            case LONG:
+                return ((Number) value).longValue();
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double) value);
+            case BOOLEAN:
+                return (Boolean) value ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Not a primitive type " + type);
+        }
+    }
+
+    private static int[] sortedIndex(String[] keys) {
+        Integer[] boxed = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) boxed[i] = i;
+        Arrays.sort(boxed, (a, b) -> keys[a].compareTo(keys[b]));
+
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) sorted[i] = boxed[i];
+        return sorted;
+    }
+
+    private int indexOf(String key) {
+        if (this.sorted == null) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i].equals(key)) return i;
+            }
+            return -1;
+        }
+
+        int low = 0;
+        int high = this.sorted.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.keys[this.sorted[mid]].compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return this.sorted[mid];
+            }
+        }
+        return -1;
+    }
+
+    private Object valueAt(int index) {
+        switch (this.types[index]) {
+            case INT: return (int) this.primitives[index];
+            case LONG: return this.primitives[index];
+            case DOUBLE: return Double.longBitsToDouble(this.primitives[index]);
+            case BOOLEAN: return this.primitives[index] != 0;
+            default: return this.objects[index];
+        }
+    }
+
+    int keyIds() {
+        return keyIds;
+    }
+
+    long[] keyBits() {
+        return keyBits;
+    }
+
+    long[] sectionBits() {
+        return sectionBits;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getPath() {
+        if (this.path != null) return this.path;
+
+        // Up to the closest section that stores its path, then the names back down
+        int depth = 0;
+        CompactConfigSection section = this;
+        while (section.path == null) {
+            depth++;
+            section = section.parent;
+        }
+
+        String[] names = new String[depth];
+        CompactConfigSection child = this;
+        for (int i = depth - 1; i >= 0; i--) {
+            names[i] = child.name;
+            child = child.parent;
+        }
+
+        StringBuilder path = new StringBuilder(section.path);
+        for (String name : names) {
+            if (path.length() > 0) path.append('.');
+            path.append(name);
+        }
+        return path.toString();
+    }
+
+    @Override
+    public boolean isConfigSection(String key) {
+        int index = this.indexOf(key);
+        return index != -1 && this.types[index] == OBJECT && this.objects[index] instanceof ConfigSection;
+    }
+
+    @Override
+    public Optional<ConfigSection> getConfigSection(String key) {
+        int index = this.indexOf(key);
+        if (index != -1 && this.types[index] == OBJECT && this.objects[index] instanceof ConfigSection)
+            return Optional.of((ConfigSection) this.objects[index]);
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Set<String> getKeys(boolean deep) {
+        return deep ? deepKeys(this) : new KeySet();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return this.indexOf(key) != -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String key) {
+        try {
+            return Optional.ofNullable((T) this.getObject(key, null));
+        } catch (ClassCastException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public <T> T get(String key, T def) {
+        return this.<T>get(key).orElse(def);
+    }
+
+    @Override
+    public Optional<Object> getObject(String key) {
+        return Optional.ofNullable(this.getObject(key, null));
+    }
+
+    @Override
+    public Object getObject(String key, Object def) {
+        int index = this.indexOf(key);
+        if (index == -1) return def;
+
+        Object value = this.valueAt(index);
+        return value == null ? def : value;
+    }
+
+    @Override
+    public double getDouble(String key, double def) {
+        int index = this.indexOf(key);
+        if (index == -1) return def;
+
+        switch (this.types[index]) {
+            case INT:
+            case LONG: return this.primitives[index];
+            case DOUBLE: return Double.longBitsToDouble(this.primitives[index]);
+            case BOOLEAN: return def;
+            default: return this.objects[index] instanceof Number ? ((Number) this.objects[index]).doubleValue() : def;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long def) {
+        int index = this.indexOf(key);
+        if (index == -1) return def;
+
+        switch (this.types[index]) {
+            case INT:
+            case LONG: return this.primitives[index];
+            case DOUBLE: return (long) Double.longBitsToDouble(this.primitives[index]);
+            case BOOLEAN: return def;
+            default: return this.objects[index] instanceof Number ? ((Number) this.objects[index]).longValue() : def;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int def) {
+        int index = this.indexOf(key);
+        if (index == -1) return def;
+
+        switch (this.types[index]) {
+            case INT:
+            case LONG: return (int) this.primitives[index];
+            case DOUBLE: return (int) Double.longBitsToDouble(this.primitives[index]);
+            case BOOLEAN: return def;
+            default: return this.objects[index] instanceof Number ? ((Number) this.objects[index]).intValue() : def;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean def) {
+        int index = this.indexOf(key);
+        if (index == -1) return def;
+
+        switch (this.types[index]) {
+            case BOOLEAN: return this.primitives[index] != 0;
+            case OBJECT: return this.objects[index] instanceof Boolean ? (Boolean) this.objects[index] : def;
+            default: return def;
+        }
+    }
+
+    @Override
+    public void set(String key, Object value) {
+        throw new UnsupportedOperationException("Compact sections are immutable");
+    }
+
+    @Override
+    protected boolean tracksModifications() {
+        // Never modified
+        return true;
+    }
+
+    @Override
+    public void save(File file) throws IOException {
+        ConfigWriter.write(this, file.toPath());
+    }
+
+    @Override
+    public void load(File file) {
+        throw new UnsupportedOperationException("Compact sections are immutable");
+    }
+
+    private final class KeySet extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return this.index < keys.length;
+                }
+
+                @Override
+                public String next() {
+                    if (!this.hasNext()) throw new NoSuchElementException();
+                    return keys[this.index++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && indexOf((String) o) != -1;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+    }
+}
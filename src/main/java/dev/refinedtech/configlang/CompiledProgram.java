@@ -0,0 +1,221 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.scope.Scope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * CompiledProgram is a ConfigSection tree that has been resolved against the structures of a {@link ConfigLang}.
+ * Every section knows its structure and has already been validated, so a program can be executed
+ * any number of times without registry lookups or validation.
+ * Structures submitted after the program was compiled are not picked up, compile the section again instead.
+ * <p>
+ * Programs are tiered: once a program was executed {@link ConfigLang#setTieringThreshold(int) often enough},
+ * each of its execute methods plans the sections it executes the next time it is called, and compiles them
+ * into a single method handle that invokes their structures directly.
+ * While the lang is instrumented, and for scopes with a {@link Budget}, the planned sections are dispatched one by one
+ * through the lang instead, so every section is still reported and counted.
+ * */
+@SuppressWarnings("unused")
+public final class CompiledProgram {
+
+    private static final int ROOT = 0;
+    private static final int CHILDREN = 1;
+    private static final int RECURSIVE = 2;
+
+    private final ConfigLang lang;
+    private final CompiledSection root;
+    private final AtomicInteger invocations = new AtomicInteger();
+    private final AtomicReferenceArray<Plan> plans = new AtomicReferenceArray<>(3);
+
+    CompiledProgram(ConfigLang lang, CompiledSection root) {
+        this.lang = lang;
+        this.root = root;
+    }
+
+    public ConfigLang lang() {
+        return lang;
+    }
+
+    /**
+     * @return the compiled, immutable root section of this program
+     * */
+    public ConfigSection section() {
+        return root;
+    }
+
+    /**
+     * @return whether any of the executions of this program are planned ahead
+     * */
+    public boolean isPlanned() {
+        for (int i = 0; i < this.plans.length(); i++) {
+            if (this.plans.get(i) != null) return true;
+        }
+        return false;
+    }
+
+    public Object execute(Scope scope, Object... args) {
+        Plan plan = this.plan(ROOT);
+        if (plan == null) return this.lang.execute(this.root, scope, args);
+        return plan.execute(this.lang, scope, args)[0];
+    }
+
+    public List<Object> executeChildren(Scope scope, Object... args) {
+        Plan plan = this.plan(CHILDREN);
+        if (plan == null) return this.lang.executeChildren(this.root, scope, args);
+        return new ArrayList<>(Arrays.asList(plan.execute(this.lang, scope, args)));
+    }
+
+    public List<Object> executeChildrenRecursive(Scope scope, Object... args) {
+        Plan plan = this.plan(RECURSIVE);
+        if (plan == null) return this.lang.executeChildrenRecursive(this.root, scope, args);
+
+        Object[] results = plan.execute(this.lang, scope, args);
+        boolean[] collect = plan.collect;
+        List<Object> obs = new ArrayList<>(plan.collected);
+        for (int i = 0; i < results.length; i++) {
+            if (collect[i]) obs.add(results[i]);
+        }
+        return obs;
+    }
+
+    /**
+     * Executes the program once for every scope, in a single loop over the scopes.
+     * The root structure is resolved and checked once for the whole batch, and an invalid root is reported once.
+     *
+     * @param parallel whether to split the scopes across the executor of the lang, only done for large batches
+     * @return the result for every scope, at the index of the scope
+     * */
+    public Object[] executeBatch(Consumer<String> error, List<Scope> scopes, boolean parallel, Object... args) {
+        return this.lang.executeBatch(this.root, error, scopes, parallel, args);
+    }
+
+    public Object[] executeBatch(List<Scope> scopes, Object... args) {
+        return this.executeBatch(this.lang.errorSink(), scopes, false, args);
+    }
+
+    public CompletableFuture<Object> executeAsync(Scope scope, Object... args) {
+        return this.lang.executeAsync(this.root, scope, args);
+    }
+
+    public CompletableFuture<List<Object>> executeChildrenAsync(Scope scope, Object... args) {
+        return this.lang.executeChildrenAsync(this.root, scope, args);
+    }
+
+    public CompletableFuture<List<Object>> executeChildrenRecursiveAsync(Scope scope, Object... args) {
+        return this.lang.executeChildrenRecursiveAsync(this.root, scope, args);
+    }
+
+    /**
+     * @return the plan of the kind of execution, planning it if the program is hot, or null if the execution should walk the tree
+     * */
+    private Plan plan(int kind) {
+        Plan plan = this.plans.get(kind);
+        if (plan != null || !this.isHot()) return plan;
+
+        // Only planned once, as every plan defines a class
+        synchronized (this) {
+            plan = this.plans.get(kind);
+            if (plan == null) {
+                plan = this.createPlan(kind);
+                this.plans.set(kind, plan);
+            }
+            return plan;
+        }
+    }
+
+    private boolean isHot() {
+        int threshold = this.lang.tieringThreshold();
+        if (threshold <= 0) return false;
+        return this.invocations.get() >= threshold || this.invocations.incrementAndGet() >= threshold;
+    }
+
+    private Plan createPlan(int kind) {
+        if (kind == ROOT) return new Plan(new CompiledSection[]{this.root}, null);
+        if (kind == CHILDREN) return new Plan(this.root.sections().toArray(new CompiledSection[0]), null);
+
+        // Mirrors ConfigLang#executeChildrenRecursive, which only returns the results of the direct children.
+        // Depth first on the work stack of the thread, with the value of a frame being the index of the next section.
+        List<CompiledSection> recursive = new ArrayList<>();
+        List<Boolean> collect = new ArrayList<>();
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(this.root, null, 0);
+            while (stack.size() > base) {
+                List<ConfigSection> sections = ((CompiledSection) stack.first()).sections();
+                int index = stack.value();
+                if (index == sections.size()) {
+                    stack.pop();
+                    continue;
+                }
+                stack.value(index + 1);
+
+                CompiledSection section = (CompiledSection) sections.get(index);
+                if (section.structure() != null) {
+                    recursive.add(section);
+                    collect.add(stack.size() == base + 1);
+                } else {
+                    stack.push(section, null, 0);
+                }
+            }
+        } finally {
+            stack.truncate(base);
+        }
+
+        boolean[] collected = new boolean[collect.size()];
+        for (int i = 0; i < collected.length; i++) {
+            collected[i] = collect.get(i);
+        }
+        return new Plan(recursive.toArray(new CompiledSection[0]), collected);
+    }
+
+    /**
+     * The sections executed by an execution of a program, in the order they are executed.
+     * */
+    private static final class Plan {
+
+        private final CompiledSection[] sections;
+        private final boolean[] collect;
+        private final int collected;
+        private final PlanCompiler.Specialized code;
+
+        /**
+         * @param collect whether the result of each section is returned, or null if every result is
+         * */
+        private Plan(CompiledSection[] sections, boolean[] collect) {
+            this.sections = sections;
+            this.collect = collect;
+            int collected = 0;
+            if (collect != null) {
+                for (boolean c : collect) {
+                    if (c) collected++;
+                }
+            }
+            this.collected = collected;
+            this.code = PlanCompiler.compile(sections);
+        }
+
+        /**
+         * @return the result of every section, at the index of the section
+         * */
+        private Object[] execute(ConfigLang lang, Scope scope, Object[] args) {
+            Consumer<String> error = lang.errorSink();
+            Object[] results = new Object[this.sections.length];
+            if (lang.isInstrumented() || (scope != null && scope.budget() != null)) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = lang.execute(this.sections[i], error, scope, args);
+                }
+            } else {
+                this.code.execute(error, scope, args, results);
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.scope.Scope;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * An immutable node of a {@link CompiledProgram}.
+ * The structure of the node is resolved and validated once, when the program is compiled,
+ * so executing it does not touch the structure registry nor re-run {@link ConfigStructure#matches(ConfigSection)}.
+ * */
+@SuppressWarnings("unused")
+final class CompiledSection extends ConfigSection {
+
+    private final String name;
+    private final String path;
+    private final ConfigStructure structure;
+    private final ValidationError error;
+    private final Map<String, Optional<Object>> values;
+    private final Set<String> keys;
+    private final boolean constant;
+    private final boolean folded;
+    private final Object value;
+    private volatile List<ConfigSection> sections;
+
+    /**
+     * @param values the values of the section, child sections are either CompiledSections or {@link Deferred}s
+     * */
+    CompiledSection(String name, String path, ConfigStructure structure, ValidationError error, LinkedHashMap<String, Optional<Object>> values) {
+        this(name, path, structure, error, values, false, false, null);
+    }
+
+    /**
+     * @param constant whether executing the section always has the same result, see {@link #isConstant()}
+     * */
+    CompiledSection(String name, String path, ConfigStructure structure, ValidationError error, LinkedHashMap<String, Optional<Object>> values, boolean constant) {
+        this(name, path, structure, error, values, constant, false, null);
+    }
+
+    private CompiledSection(String name, String path, ConfigStructure structure, ValidationError error, Map<String, Optional<Object>> values,
+                            boolean constant, boolean folded, Object value) {
+        this.name = name;
+        this.path = path;
+        this.structure = structure;
+        this.error = error;
+        this.values = values;
+        this.keys = Collections.unmodifiableSet(values.keySet());
+        this.constant = constant;
+        this.folded = folded;
+        this.value = value;
+    }
+
+    /**
+     * @return a copy of this section that returns the value instead of running its structure
+     * */
+    CompiledSection fold(Object value) {
+        return new CompiledSection(this.name, this.path, this.structure, this.error, this.values, true, true, value);
+    }
+
+    ConfigStructure structure() {
+        return structure;
+    }
+
+    ValidationError error() {
+        return error;
+    }
+
+    /**
+     * @return whether the section is a valid pure data structure whose sections are all constant,
+     * or a section without a structure whose sections are all constant
+     * */
+    boolean isConstant() {
+        return constant;
+    }
+
+    /**
+     * @return whether the result of the section was computed when it was compiled, see {@link #foldedValue()}
+     * */
+    boolean isFolded() {
+        return folded;
+    }
+
+    Object foldedValue() {
+        return value;
+    }
+
+    List<ConfigSection> sections() {
+        List<ConfigSection> sections = this.sections;
+        if (sections != null) return sections;
+
+        sections = new ArrayList<>();
+        for (String key : this.keys) {
+            Optional<Object> value = this.value(key);
+            if (value.isPresent() && value.get() instanceof CompiledSection) {
+                sections.add((CompiledSection) value.get());
+            }
+        }
+        sections = Collections.unmodifiableList(sections);
+        this.sections = sections;
+        return sections;
+    }
+
+    /**
+     * @return the value of the key, materializing deferred child sections, or null if the key does not exist
+     * */
+    private Optional<Object> value(String key) {
+        Optional<Object> value = this.values.get(key);
+        if (value == null || value.isEmpty() || !(value.get() instanceof Deferred)) return value;
+
+        synchronized (this) {
+            value = this.values.get(key);
+            if (value.get() instanceof Deferred) {
+                value = Optional.of(((Deferred) value.get()).materialize());
+                this.values.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    Object execute(Consumer<String> error, Scope scope, Object... args) {
+        if (this.folded) return this.value;
+        if (this.structure == null) return null;
+        if (this.error != null) {
+            ConfigLang.report(error, this.error);
+            return null;
+        }
+
+        return this.structure.invoke(this, scope, args);
+    }
+
+    CompletableFuture<Object> executeAsync(Consumer<String> error, Scope scope, Executor executor, Object... args) {
+        if (this.folded) return CompletableFuture.completedFuture(this.value);
+        if (this.structure == null) return CompletableFuture.completedFuture(null);
+        if (this.error != null) {
+            ConfigLang.report(error, this.error);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return this.structure.runAsync(this, scope, executor, args);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getPath() {
+        return this.path;
+    }
+
+    @Override
+    public boolean isConfigSection(String key) {
+        Optional<Object> value = this.values.get(key);
+        return value != null && value.isPresent() && (value.get() instanceof ConfigSection || value.get() instanceof Deferred);
+    }
+
+    @Override
+    public Optional<ConfigSection> getConfigSection(String key) {
+        Optional<Object> value = this.value(key);
+        if (value != null && value.isPresent() && value.get() instanceof ConfigSection)
+            return Optional.of((ConfigSection) value.get());
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Set<String> getKeys(boolean deep) {
+        return deep ? deepKeys(this) : this.keys;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return this.values.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String key) {
+        return (Optional<T>) this.getObject(key);
+    }
+
+    @Override
+    public <T> T get(String key, T def) {
+        return this.<T>get(key).orElse(def);
+    }
+
+    @Override
+    public Optional<Object> getObject(String key) {
+        Optional<Object> value = this.value(key);
+        return value == null ? Optional.empty() : value;
+    }
+
+    @Override
+    public Object getObject(String key, Object def) {
+        Optional<Object> value = this.value(key);
+        return value == null ? def : value.orElse(def);
+    }
+
+    @Override
+    public void set(String key, Object value) {
+        throw new UnsupportedOperationException("Compiled sections are immutable");
+    }
+
+    @Override
+    protected boolean tracksModifications() {
+        // Never modified
+        return true;
+    }
+
+    @Override
+    public void save(File file) {
+        throw new UnsupportedOperationException("Compiled sections can not be saved");
+    }
+
+    @Override
+    public void load(File file) {
+        throw new UnsupportedOperationException("Compiled sections are immutable");
+    }
+
+    /**
+     * A child section that is only materialized once it is accessed.
+     * */
+    interface Deferred {
+
+        CompiledSection materialize();
+    }
+}
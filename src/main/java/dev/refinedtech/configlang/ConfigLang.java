@@ -1,51 +1,165 @@
 package dev.refinedtech.configlang;
 
+import dev.refinedtech.configlang.metrics.Instrumentation;
 import dev.refinedtech.configlang.scope.Scope;
+import dev.refinedtech.configlang.variables.SlotLayout;
+import dev.refinedtech.configlang.variables.VariableAccessor;
+import dev.refinedtech.configlang.variables.VariableSlot;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
+/**
+ * ConfigLang is the registry of the structures that make up a language, and executes sections with them.
+ * <p>
+ * A ConfigLang is thread-safe: structures can be submitted while other threads look them up or execute sections,
+ * lookups never lock, and every execution sees a consistent snapshot of the registry.
+ * During execution the following objects may be shared across threads:
+ * <ul>
+ *     <li>the ConfigLang itself and {@link CompiledProgram}s, which are immutable</li>
+ *     <li>{@link ConfigStructure}s, as long as their {@code run} implementation does not keep mutable state</li>
+ *     <li>{@link ConfigSection}s, as long as they are not modified while being executed</li>
+ *     <li>a {@link Scope} as the parent of per-thread {@link Scope#childScope(String) child scopes},
+ *     as long as it is not modified while the children are in use</li>
+ * </ul>
+ * A Scope and its variables must otherwise only be used by one thread at a time.
+ * */
 @SuppressWarnings("unused")
 public class ConfigLang {
 
-    private final HashMap<String, ConfigStructure> structureHashMap = new HashMap<>();
-    private Logger errorLogger;
+    /**
+     * The minimum number of scopes a parallel batch hands to one task.
+     * */
+    private static final int BATCH_CHUNK_SIZE = 64;
+
+    private volatile Map<String, ConfigStructure> structures = Collections.emptyMap();
+    private volatile Logger errorLogger;
+    private volatile Executor executor = ForkJoinPool.commonPool();
+    private volatile Instrumentation instrumentation;
+    private volatile int tieringThreshold = 1000;
+    private final Sink loggingSink = new LoggingSink();
+    private final SlotLayout slots = new SlotLayout();
 
     public void submit(ConfigStructure structure) {
         if (structure == null) return;
-        structureHashMap.put(structure.key(), structure);
+        synchronized (this) {
+            Map<String, ConfigStructure> structures = new HashMap<>(this.structures);
+            structures.put(structure.key(), structure);
+            this.structures = Collections.unmodifiableMap(structures);
+        }
     }
 
     public void setErrorLogger(Logger logger) {
         this.errorLogger = logger;
     }
 
+    /**
+     * Sets the executor that parallel and asynchronous executions run on, defaults to the common {@link ForkJoinPool}.
+     * */
+    public void setExecutor(Executor executor) {
+        this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Sets the instrumentation notified around every validation and execution, or null to disable instrumentation.
+     * Without instrumentation, executions only pay for a single null check.
+     * */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Sets after how many executions a {@link CompiledProgram} plans its executions ahead, or 0 to never plan them.
+     * Defaults to 1000.
+     * */
+    public void setTieringThreshold(int threshold) {
+        this.tieringThreshold = Math.max(0, threshold);
+    }
+
+    int tieringThreshold() {
+        return this.tieringThreshold;
+    }
+
+    boolean isInstrumented() {
+        return this.instrumentation != null;
+    }
+
+    /**
+     * @return the slot of the variable in the scopes created by {@link #newScope(String)}
+     * */
+    public VariableSlot slot(String name) {
+        return this.slots.slot(name);
+    }
+
+    public SlotLayout slots() {
+        return slots;
+    }
+
+    /**
+     * Creates a root scope that keeps the variables with a {@link #slot(String) slot} in an array frame,
+     * so structures can access them through their slot without hashing their names.
+     * Compiling a section, or loading a {@link ProgramSnapshot} of it, gives a slot to every variable its values refer to as {@code $name}.
+     * */
+    public Scope newScope(String name) {
+        return new Scope(name, this.slots);
+    }
+
+    /**
+     * Gives the variable the value refers to a slot, if it is a string that refers to a variable.
+     * */
+    void registerSlot(Object value) {
+        if (isVariable(value)) this.slots.slot(VariableAccessor.compile((String) value).variable());
+    }
+
+    /**
+     * @return whether the value is a string that refers to a variable as {@code $name}, which is resolved against the scope when it is read
+     * */
+    static boolean isVariable(Object value) {
+        return value instanceof String && ((String) value).startsWith("$") && !VariableAccessor.compile((String) value).variable().isEmpty();
+    }
+
     public Optional<ConfigStructure> get(String key) {
-        return Optional.ofNullable(structureHashMap.get(key));
+        return Optional.ofNullable(this.structures.get(key));
     }
 
     public boolean knows(String key) {
-        return this.structureHashMap.containsKey(key);
+        return this.structures.containsKey(key);
     }
 
     public Object getData(ConfigSection section, Consumer<String> error, String key, Scope scope, Object... args) {
         Object obj = section.getObject(key);
-        if (obj instanceof ConfigSection) {
+        // Descends through nested sections in a loop instead of recursing
+        while (obj instanceof ConfigSection) {
             ConfigSection subSection = (ConfigSection) obj;
-            Optional<ConfigStructure> structure = this.get(subSection.getName());
-            if (structure.isPresent()) {
-                return structure.get().execute(subSection, error, scope, args);
+            ConfigStructure structure = this.structureOf(subSection);
+            if (structure != null) {
+                return this.dispatch(structure, subSection, error, scope, args);
             }
 
-            return this.getData(subSection, error, key, scope, args);
+            section = subSection;
+            obj = section.getObject(key);
         }
         Optional<ConfigStructure> structure = this.get(key);
         if (structure.isPresent()) {
-            return structure.get().execute(section, error, scope, args);
+            return this.dispatch(structure.get(), section, error, scope, args);
         }
 
         Optional<ConfigSection> configSection = section.getConfigSection(key);
@@ -57,73 +171,975 @@ public class ConfigLang {
     }
 
     public Object getData(ConfigSection section, String key, Scope scope, Object... args) {
-        return this.getData(section, error -> {
-            if (errorLogger != null) errorLogger.severe(error);
-        }, key, scope, args);
+        return this.getData(section, this.errorSink(), key, scope, args);
+    }
+
+    /**
+     * The primitive counterpart of {@link #getData(ConfigSection, Consumer, String, Scope, Object...)},
+     * which runs structures through {@link ConfigStructure#runDouble} and reads plain values without boxing.
+     *
+     * @return the data as a double, or NaN if there is none or it is not a number
+     * */
+    public double getDouble(ConfigSection section, Consumer<String> error, String key, Scope scope, Object... args) {
+        return Double.longBitsToDouble(this.getPrimitive(Primitive.DOUBLE, section, error, key, scope, args));
+    }
+
+    public double getDouble(ConfigSection section, String key, Scope scope, Object... args) {
+        return this.getDouble(section, this.errorSink(), key, scope, args);
+    }
+
+    /**
+     * @return the data as a long, or 0 if there is none or it is not a number
+     * @see #getDouble(ConfigSection, Consumer, String, Scope, Object...)
+     * */
+    public long getLong(ConfigSection section, Consumer<String> error, String key, Scope scope, Object... args) {
+        return this.getPrimitive(Primitive.LONG, section, error, key, scope, args);
+    }
+
+    public long getLong(ConfigSection section, String key, Scope scope, Object... args) {
+        return this.getLong(section, this.errorSink(), key, scope, args);
+    }
+
+    /**
+     * @return the data as a boolean, or false if there is none or it is not a boolean
+     * @see #getDouble(ConfigSection, Consumer, String, Scope, Object...)
+     * */
+    public boolean getBoolean(ConfigSection section, Consumer<String> error, String key, Scope scope, Object... args) {
+        return this.getPrimitive(Primitive.BOOLEAN, section, error, key, scope, args) != 0;
+    }
+
+    public boolean getBoolean(ConfigSection section, String key, Scope scope, Object... args) {
+        return this.getBoolean(section, this.errorSink(), key, scope, args);
     }
 
     public Object execute(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
         if (section == null) return null;
-        ConfigStructure structure = structureHashMap.get(section.getName());
+        ConfigStructure structure = this.structureOf(section);
         if (structure == null) return null;
-        return structure.execute(section, error, scope, args);
+        return this.dispatch(structure, section, error, scope, args);
     }
 
     public Object execute(ConfigSection section, Scope scope, Object... args) {
-        return this.execute(section, error -> {
-            if (errorLogger != null) errorLogger.severe(error);
-        }, scope, args);
+        return this.execute(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Executes the section through {@link ConfigStructure#runDouble}, so numeric structures can compute their result without boxing.
+     *
+     * @return the result as a double, or NaN if there is none or it is not a number
+     * */
+    public double executeDouble(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        return Double.longBitsToDouble(this.executePrimitive(Primitive.DOUBLE, section, error, scope, args));
+    }
+
+    public double executeDouble(ConfigSection section, Scope scope, Object... args) {
+        return this.executeDouble(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * @return the result as a long, or 0 if there is none or it is not a number
+     * @see #executeDouble(ConfigSection, Consumer, Scope, Object...)
+     * */
+    public long executeLong(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        return this.executePrimitive(Primitive.LONG, section, error, scope, args);
+    }
+
+    public long executeLong(ConfigSection section, Scope scope, Object... args) {
+        return this.executeLong(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * @return the result as a boolean, or false if there is none or it is not a boolean
+     * @see #executeDouble(ConfigSection, Consumer, Scope, Object...)
+     * */
+    public boolean executeBoolean(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        return this.executePrimitive(Primitive.BOOLEAN, section, error, scope, args) != 0;
+    }
+
+    public boolean executeBoolean(ConfigSection section, Scope scope, Object... args) {
+        return this.executeBoolean(section, this.errorSink(), scope, args);
     }
 
     public List<Object> executeChildren(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
         if (section == null) return null;
         List<Object> obs = new ArrayList<>();
-        for (String key : section.getKeys(false)) {
-            Optional<ConfigSection> opt = section.getConfigSection(key);
-
-            if (opt.isEmpty()) continue;
-
-            obs.add(execute(opt.get(), error, scope, args));
+        for (ConfigSection sec : this.sections(section)) {
+            obs.add(execute(sec, error, scope, args));
         }
         return obs;
     }
 
     public List<Object> executeChildren(ConfigSection section, Scope scope, Object... args) {
-        return this.executeChildren(section, error -> {
-            if (errorLogger != null) errorLogger.severe(error);
-        }, scope, args);
+        return this.executeChildren(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Lazily executes the children of the section, each child is only executed once its result is pulled from the stream.
+     * This lets short-circuiting operations such as {@link Stream#allMatch} skip the remaining children.
+     * */
+    public Stream<Object> streamChildren(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return Stream.empty();
+
+        Stream<ConfigSection> sections = section instanceof CompiledSection
+                ? ((CompiledSection) section).sections().stream()
+                : section.getKeys(false).stream().map(section::getConfigSection).flatMap(Optional::stream);
+        return sections.map(sec -> execute(sec, error, scope, args));
+    }
+
+    public Stream<Object> streamChildren(ConfigSection section, Scope scope, Object... args) {
+        return this.streamChildren(section, this.errorSink(), scope, args);
     }
 
     public List<Object> executeChildrenRecursive(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
         if (section == null) return null;
         List<Object> obs = new ArrayList<>();
-        for (String key : section.getKeys(false)) {
-            if (!section.isConfigSection(key)) continue;
 
-            Optional<ConfigSection> opt = section.getConfigSection(key);
+        // Depth first on the work stack of the thread, with the value of a frame telling whether it is a direct child
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            pushSections(stack, section, 1);
+            while (stack.size() > base) {
+                ConfigSection sec = (ConfigSection) stack.first();
+                boolean direct = stack.value() != 0;
+                stack.pop();
+
+                ConfigStructure structure = this.structureOf(sec);
+                if (structure == null) {
+                    pushSections(stack, sec, 0);
+                    continue;
+                }
+
+                Object result = this.dispatch(structure, sec, error, scope, args);
+                if (direct) obs.add(result);
+            }
+        } finally {
+            stack.truncate(base);
+        }
+        return obs;
+    }
+
+    public List<Object> executeChildrenRecursive(ConfigSection section, Scope scope, Object... args) {
+        return this.executeChildrenRecursive(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Like {@link #executeChildren(ConfigSection, Consumer, Scope, Object...)}, but runs the children in parallel on the executor.
+     * Each child runs in its own child scope of the given scope, so children can not see each other's variables.
+     * The results are in the order of the children, and errors are reported after all children finished, in the same order.
+     * If children throw, the exception of the first one is rethrown once all children finished.
+     * The calling thread runs the children the executor did not start yet, so parallel sections can be nested on a bounded executor.
+     * */
+    public List<Object> executeChildrenParallel(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return null;
+        return this.parallel(this.sections(section), false, error, scope, args);
+    }
+
+    public List<Object> executeChildrenParallel(ConfigSection section, Scope scope, Object... args) {
+        return this.executeChildrenParallel(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Like {@link #executeChildrenRecursive(ConfigSection, Consumer, Scope, Object...)},
+     * but runs the children in parallel, see {@link #executeChildrenParallel(ConfigSection, Consumer, Scope, Object...)}.
+     * */
+    public List<Object> executeChildrenRecursiveParallel(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return null;
+        return this.parallel(this.sections(section), true, error, scope, args);
+    }
+
+    public List<Object> executeChildrenRecursiveParallel(ConfigSection section, Scope scope, Object... args) {
+        return this.executeChildrenRecursiveParallel(section, this.errorSink(), scope, args);
+    }
 
-            if (opt.isEmpty()) continue;
+    private List<Object> parallel(List<ConfigSection> sections, boolean recursive, Consumer<String> error, Scope scope, Object... args) {
+        int size = sections.size();
+        Object[] results = new Object[size];
+        boolean[] returned = new boolean[size];
+        List<Collected> errors = new ArrayList<>(size);
+        Runnable[] tasks = new Runnable[size];
 
-            ConfigSection sec = opt.get();
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            ConfigSection sec = sections.get(i);
+            Collected branchErrors = new Collected();
+            errors.add(branchErrors);
 
-            if (!knows(sec.getName())) {
-                Object result = execute(sec, error, scope, args);
-                if (result == null) {
-                    executeChildrenRecursive(sec, error, scope, args);
+            tasks[i] = () -> {
+                Budget budget = scope.budget();
+                Scope branch = budget == null ? scope.childScope(sec.getName()) : scope.budgetedScope(sec.getName(), budget.fork());
+                ConfigStructure structure = this.structureOf(sec);
+                if (structure != null) {
+                    results[index] = this.dispatch(structure, sec, branchErrors, branch, args);
+                    returned[index] = true;
+                } else if (recursive) {
+                    this.executeChildrenRecursive(sec, branchErrors, branch, args);
                 } else {
-                    obs.add(result);
+                    returned[index] = true;
                 }
-                continue;
+            };
+        }
+
+        Throwable failure = this.runAll(tasks);
+
+        if (error != null) {
+            for (Collected branchErrors : errors) {
+                branchErrors.reportTo(error);
             }
+        }
 
-            obs.add(execute(sec, error, scope, args));
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new CompletionException(failure);
+
+        List<Object> obs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (returned[i]) obs.add(results[i]);
         }
         return obs;
     }
 
-    public List<Object> executeChildrenRecursive(ConfigSection section, Scope scope, Object... args) {
-        return this.executeChildrenRecursive(section, error -> {
-            if (errorLogger != null) errorLogger.severe(error);
-        }, scope, args);
+    /**
+     * Executes the section without blocking the calling thread.
+     * Structures run through {@link ConfigStructure#runAsync}, on the {@link #setExecutor(Executor) executor} unless they complete on their own.
+     * */
+    public CompletableFuture<Object> executeAsync(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return CompletableFuture.completedFuture(null);
+        ConfigStructure structure = this.structureOf(section);
+        if (structure == null) return CompletableFuture.completedFuture(null);
+        return this.dispatchAsync(structure, section, error, scope, args);
+    }
+
+    public CompletableFuture<Object> executeAsync(ConfigSection section, Scope scope, Object... args) {
+        return this.executeAsync(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Executes the children of the section one after the other without blocking the calling thread,
+     * each child starts once the previous one completed.
+     * */
+    public CompletableFuture<List<Object>> executeChildrenAsync(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<List<Object>> result = CompletableFuture.completedFuture(new ArrayList<>());
+        for (ConfigSection sec : this.sections(section)) {
+            result = result.thenCompose(obs -> this.executeAsync(sec, error, scope, args).thenApply(ob -> {
+                obs.add(ob);
+                return obs;
+            }));
+        }
+        return result;
+    }
+
+    public CompletableFuture<List<Object>> executeChildrenAsync(ConfigSection section, Scope scope, Object... args) {
+        return this.executeChildrenAsync(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * The asynchronous counterpart of {@link #executeChildrenRecursive(ConfigSection, Consumer, Scope, Object...)},
+     * see {@link #executeChildrenAsync(ConfigSection, Consumer, Scope, Object...)}.
+     * The sections to execute are looked up when it is called, and then executed one after the other.
+     * */
+    public CompletableFuture<List<Object>> executeChildrenRecursiveAsync(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<List<Object>> result = CompletableFuture.completedFuture(new ArrayList<>());
+
+        // Depth first on the work stack of the thread, with the value of a frame telling whether it is a direct child
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            pushSections(stack, section, 1);
+            while (stack.size() > base) {
+                ConfigSection sec = (ConfigSection) stack.first();
+                boolean direct = stack.value() != 0;
+                stack.pop();
+
+                ConfigStructure structure = this.structureOf(sec);
+                if (structure == null) {
+                    pushSections(stack, sec, 0);
+                    continue;
+                }
+
+                result = result.thenCompose(obs -> this.dispatchAsync(structure, sec, error, scope, args).thenApply(ob -> {
+                    if (direct) obs.add(ob);
+                    return obs;
+                }));
+            }
+        } finally {
+            stack.truncate(base);
+        }
+        return result;
+    }
+
+    public CompletableFuture<List<Object>> executeChildrenRecursiveAsync(ConfigSection section, Scope scope, Object... args) {
+        return this.executeChildrenRecursiveAsync(section, this.errorSink(), scope, args);
+    }
+
+    /**
+     * Executes the section once for every scope, see {@link CompiledProgram#executeBatch(Consumer, List, boolean, Object...)}.
+     * Only the structure of the section is looked up and validated, once for the whole batch,
+     * and the validation is cached on the section for its executions, so the section is not compiled.
+     * */
+    public Object[] executeBatch(ConfigSection section, Consumer<String> error, List<Scope> scopes, boolean parallel, Object... args) {
+        if (section == null) return new Object[scopes.size()];
+        if (section instanceof CompiledSection) return this.executeBatch((CompiledSection) section, error, scopes, parallel, args);
+
+        ConfigStructure structure = this.structures.get(section.getName());
+        if (structure == null || scopes.isEmpty()) return new Object[scopes.size()];
+
+        Instrumentation instrumentation = this.instrumentation;
+        ValidationError err = instrumentation == null ? structure.validate(section) : this.validate(instrumentation, structure, section);
+        if (err != null) {
+            report(error, err);
+            return new Object[scopes.size()];
+        }
+        return this.executeBatch(structure, section, error, scopes, parallel, args);
+    }
+
+    public Object[] executeBatch(ConfigSection section, List<Scope> scopes, Object... args) {
+        return this.executeBatch(section, this.errorSink(), scopes, false, args);
+    }
+
+    Object[] executeBatch(CompiledSection section, Consumer<String> error, List<Scope> scopes, boolean parallel, Object... args) {
+        ConfigStructure structure = section.structure();
+        if (structure == null || scopes.isEmpty()) return new Object[scopes.size()];
+        if (section.error() != null) {
+            report(error, section.error());
+            return new Object[scopes.size()];
+        }
+        return this.executeBatch(structure, section, error, scopes, parallel, args);
+    }
+
+    /**
+     * Executes the section, which was already validated against the structure, once for every scope.
+     * */
+    private Object[] executeBatch(ConfigStructure structure, ConfigSection section, Consumer<String> error, List<Scope> scopes, boolean parallel, Object... args) {
+        int size = scopes.size();
+        Object[] results = new Object[size];
+
+        int chunks = parallel ? Math.min(this.parallelism(), size / BATCH_CHUNK_SIZE) : 1;
+        if (chunks <= 1) {
+            for (int i = 0; i < size; i++) {
+                results[i] = this.dispatch(structure, section, error, scopes.get(i), args);
+            }
+            return results;
+        }
+
+        List<Collected> errors = new ArrayList<>(chunks);
+        Runnable[] tasks = new Runnable[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = (int) ((long) size * chunk / chunks);
+            int to = (int) ((long) size * (chunk + 1) / chunks);
+            Collected chunkErrors = new Collected();
+            errors.add(chunkErrors);
+
+            tasks[chunk] = () -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = this.dispatch(structure, section, chunkErrors, scopes.get(i), args);
+                }
+            };
+        }
+
+        Throwable failure = this.runAll(tasks);
+
+        if (error != null) {
+            for (Collected chunkErrors : errors) {
+                chunkErrors.reportTo(error);
+            }
+        }
+
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new CompletionException(failure);
+        return results;
+    }
+
+    /**
+     * Runs the tasks on the executor and waits until all of them completed.
+     * The calling thread runs the tasks that no thread of the executor started yet, starting with the last one,
+     * so a parallel execution nested in a task of a bounded executor does not wait on tasks that are queued behind it.
+     *
+     * @return the failure of the first task that failed, with the failures of the later ones suppressed, or null if none failed
+     * */
+    private Throwable runAll(Runnable[] tasks) {
+        Executor executor = this.executor;
+        Task[] started = new Task[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            started[i] = new Task(tasks[i]);
+            if (i == tasks.length - 1) break;
+
+            try {
+                executor.execute(started[i]);
+            } catch (RejectedExecutionException e) {
+                // Run by the calling thread below
+            }
+        }
+
+        for (int i = started.length - 1; i >= 0; i--) {
+            started[i].run();
+        }
+
+        Throwable failure = null;
+        for (Task task : started) {
+            try {
+                task.done.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * A task of {@link #runAll(Runnable[])}, which is run by whichever thread gets to it first.
+     * */
+    private static final class Task implements Runnable {
+
+        private final Runnable body;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Task(Runnable body) {
+            this.body = body;
+        }
+
+        @Override
+        public void run() {
+            if (!this.claimed.compareAndSet(false, true)) return;
+
+            try {
+                this.body.run();
+                this.done.complete(null);
+            } catch (Throwable e) {
+                this.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private int parallelism() {
+        Executor executor = this.executor;
+        return executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Resolves and validates the given section and all of its children once,
+     * producing a program that can be executed repeatedly without looking up or validating structures.
+     * Validation errors are reported to the error consumer here, and again each time the invalid section is executed.
+     * <p>
+     * Sections of {@link ConfigStructure#isPure() pure} structures whose sections are all constant,
+     * and whose values do not refer to variables as {@code $name}, are run once here and replaced with their result, and the sections a structure reports as {@link ConfigStructure#deadBranches dead} are left out.
+     * */
+    public CompiledProgram compile(ConfigSection section, Consumer<String> error) {
+        if (section == null) return null;
+        return new CompiledProgram(this, this.compileSection(this.structures, section, error, null));
+    }
+
+    public CompiledProgram compile(ConfigSection section) {
+        return this.compile(section, this.errorSink());
+    }
+
+    /**
+     * Compiles a new version of a program, reusing the compiled sections of the previous version that did not change.
+     * A section is reused when its name, path, structure, keys and values are the same and all of its children were reused,
+     * so only the changed sections and their parents are validated again.
+     * The previous program is left untouched, so executions that are still running it are not affected.
+     * */
+    public CompiledProgram recompile(CompiledProgram previous, ConfigSection section, Consumer<String> error) {
+        if (section == null) return null;
+        if (previous == null) return this.compile(section, error);
+        return new CompiledProgram(this, this.compileSection(this.structures, section, error, (CompiledSection) previous.section()));
+    }
+
+    public CompiledProgram recompile(CompiledProgram previous, ConfigSection section) {
+        return this.recompile(previous, section, this.errorSink());
+    }
+
+    private CompiledSection compileSection(Map<String, ConfigStructure> structures, ConfigSection section, Consumer<String> error, CompiledSection previous) {
+        // Depth first on the work stack of the thread, a section is finished once all of its sections were compiled
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(new Compilation(structures, section, previous), null, 0);
+            CompiledSection compiled = null;
+            while (stack.size() > base) {
+                Compilation compilation = (Compilation) stack.first();
+                if (compiled != null) {
+                    compilation.compiled(compiled);
+                    compiled = null;
+                }
+
+                ConfigSection sub = this.nextSection(structures, compilation);
+                if (sub != null) {
+                    stack.push(new Compilation(structures, sub, compilation.before), null, 0);
+                    continue;
+                }
+
+                stack.pop();
+                compiled = this.finish(compilation, error);
+            }
+            return compiled;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * Adds the values of the section being compiled up to its next section.
+     *
+     * @return the next section to compile, or null once all keys of the section were added
+     * */
+    private ConfigSection nextSection(Map<String, ConfigStructure> structures, Compilation compilation) {
+        ConfigSection section = compilation.section;
+        CompiledSection previous = compilation.previous;
+        while (compilation.keys.hasNext()) {
+            String key = compilation.keys.next();
+            if (compilation.unchanged) compilation.unchanged = compilation.previousKeys.hasNext() && compilation.previousKeys.next().equals(key);
+
+            // getData runs the structure named by a key on the section itself
+            ConfigStructure keyStructure = structures.get(key);
+            if (keyStructure != null && !isPure(keyStructure)) compilation.constant = false;
+
+            Optional<ConfigSection> sub = section.getConfigSection(key);
+            if (sub.isPresent()) {
+                compilation.key = key;
+                compilation.before = previous == null ? null : (CompiledSection) previous.getConfigSection(key).orElse(null);
+                return sub.get();
+            }
+
+            Optional<Object> value = section.getObject(key);
+            compilation.unchanged = compilation.unchanged && !previous.isConfigSection(key) && previous.getObject(key).equals(value);
+            compilation.values.put(key, value);
+            if (value.isPresent() && isVariable(value.get())) {
+                // Its value depends on the scope the section is executed in
+                compilation.constant = false;
+                this.registerSlot(value.get());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the compiled section, once all of its sections were compiled
+     * */
+    private CompiledSection finish(Compilation compilation, Consumer<String> error) {
+        ConfigSection section = compilation.section;
+        ConfigStructure structure = compilation.structure;
+        CompiledSection previous = compilation.previous;
+        LinkedHashMap<String, Optional<Object>> values = compilation.values;
+        boolean constant = compilation.constant;
+
+        if (compilation.unchanged && !compilation.previousKeys.hasNext()) return previous;
+
+        if (structure == null) {
+            return new CompiledSection(section.getName(), section.getPath(), null, null, values, constant);
+        }
+
+        Instrumentation instrumentation = this.instrumentation;
+        ValidationError err = instrumentation == null ? structure.validate(section) : this.validate(instrumentation, structure, section);
+        if (err != null) {
+            report(error, err);
+            return new CompiledSection(section.getName(), section.getPath(), structure, err, values);
+        }
+
+        CompiledSection compiled = new CompiledSection(section.getName(), section.getPath(), structure, null, values, constant && isPure(structure));
+
+        Collection<String> dead = structure.deadBranches(compiled, this);
+        if (!dead.isEmpty()) {
+            values = new LinkedHashMap<>(values);
+            values.keySet().removeAll(dead);
+            compiled = new CompiledSection(section.getName(), section.getPath(), structure, null, values, compiled.isConstant());
+        }
+
+        if (compiled.isConstant()) {
+            try {
+                compiled = compiled.fold(compiled.execute(null, new Scope("constant")));
+            } catch (RuntimeException e) {
+                // Left to fail when the program is executed
+                compiled = new CompiledSection(section.getName(), section.getPath(), structure, null, values, false);
+            }
+        }
+        return compiled;
+    }
+
+    private static boolean isPure(ConfigStructure structure) {
+        return structure.returnsData() && structure.isPure();
+    }
+
+    /**
+     * The state of a section while its sections are compiled, see {@link #compileSection}.
+     * */
+    private static final class Compilation {
+
+        private final ConfigSection section;
+        private final ConfigStructure structure;
+        private final CompiledSection previous;
+        private final Iterator<String> keys;
+        private final Iterator<String> previousKeys;
+        private final LinkedHashMap<String, Optional<Object>> values = new LinkedHashMap<>();
+        private boolean unchanged;
+        private boolean constant = true;
+
+        /**
+         * The key of the section being compiled, and its compiled section in the previous version.
+         * */
+        private String key;
+        private CompiledSection before;
+
+        private Compilation(Map<String, ConfigStructure> structures, ConfigSection section, CompiledSection previous) {
+            this.section = section;
+            this.structure = structures.get(section.getName());
+            this.previous = previous;
+            this.keys = section.getKeys(false).iterator();
+            this.unchanged = previous != null
+                    && previous.structure() == this.structure
+                    && previous.getName().equals(section.getName())
+                    && previous.getPath().equals(section.getPath());
+            this.previousKeys = this.unchanged ? previous.getKeys(false).iterator() : null;
+        }
+
+        private void compiled(CompiledSection compiled) {
+            this.unchanged &= compiled == this.before;
+            this.constant &= compiled.isConstant();
+            this.values.put(this.key, Optional.of(compiled));
+        }
+    }
+
+    /**
+     * @return the result of the section if it was computed when the section was compiled, see {@link ConfigStructure#isPure()}
+     * */
+    public Optional<Object> constant(ConfigSection section) {
+        if (section instanceof CompiledSection && ((CompiledSection) section).isFolded()) {
+            return Optional.ofNullable(((CompiledSection) section).foldedValue());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the consumer the convenience overloads report errors to, or null if errors would not be logged anyway
+     * */
+    Consumer<String> errorSink() {
+        Logger logger = this.errorLogger;
+        return logger != null && logger.isLoggable(Level.SEVERE) ? this.loggingSink : null;
+    }
+
+    /**
+     * Reports the validation error to the consumer.
+     * The consumers of the lang receive the error itself, so it is only formatted once it is logged.
+     * */
+    static void report(Consumer<String> error, ValidationError err) {
+        if (error instanceof Sink) {
+            ((Sink) error).report(err);
+        } else if (error != null) {
+            error.accept(err.message());
+        }
+    }
+
+    /**
+     * A consumer of errors that also accepts validation errors without formatting them, see {@link #report(Consumer, ValidationError)}.
+     * */
+    private interface Sink extends Consumer<String> {
+
+        void report(ValidationError error);
+    }
+
+    private final class LoggingSink implements Sink {
+
+        @Override
+        public void accept(String error) {
+            Logger logger = errorLogger;
+            if (logger != null) logger.severe(error);
+        }
+
+        @Override
+        public void report(ValidationError error) {
+            Logger logger = errorLogger;
+            if (logger != null) logger.log(Level.SEVERE, error::message);
+        }
+    }
+
+    /**
+     * Collects the errors of a parallel branch or chunk, so they are reported in order once all of them finished.
+     * */
+    private static final class Collected implements Sink {
+
+        private final List<Object> errors = new ArrayList<>();
+
+        @Override
+        public void accept(String error) {
+            this.errors.add(error);
+        }
+
+        @Override
+        public void report(ValidationError error) {
+            this.errors.add(error);
+        }
+
+        private void reportTo(Consumer<String> error) {
+            for (Object collected : this.errors) {
+                if (collected instanceof ValidationError) {
+                    ConfigLang.report(error, (ValidationError) collected);
+                } else {
+                    error.accept((String) collected);
+                }
+            }
+        }
+    }
+
+    private ConfigStructure structureOf(ConfigSection section) {
+        if (section instanceof CompiledSection) return ((CompiledSection) section).structure();
+        return this.structures.get(section.getName());
+    }
+
+    private Object dispatch(ConfigStructure structure, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        Budget budget = scope == null ? null : scope.budget();
+        if (budget == null) return this.invoke(structure, section, error, scope, args);
+
+        budget.enter();
+        try {
+            return this.invoke(structure, section, error, scope, args);
+        } finally {
+            budget.exit();
+        }
+    }
+
+    private Object invoke(ConfigStructure structure, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        Instrumentation instrumentation = this.instrumentation;
+        if (instrumentation != null) return this.instrumented(instrumentation, structure, section, error, scope, args);
+
+        if (section instanceof CompiledSection && ((CompiledSection) section).structure() == structure)
+            return ((CompiledSection) section).execute(error, scope, args);
+        return structure.execute(section, error, scope, args);
+    }
+
+    private Object instrumented(Instrumentation instrumentation, ConfigStructure structure, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        boolean compiled = section instanceof CompiledSection && ((CompiledSection) section).structure() == structure;
+        ValidationError err = compiled ? ((CompiledSection) section).error() : this.validate(instrumentation, structure, section);
+
+        Object context = instrumentation.beforeExecute(structure, section);
+        long start = System.nanoTime();
+        try {
+            return compiled ? ((CompiledSection) section).execute(error, scope, args) : structure.execute(section, error, scope, args);
+        } finally {
+            instrumentation.afterExecute(structure, section, context, err, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the only section of the section if it has a structure, whose result is then the only result of
+     * {@link #executeChildrenRecursive}, otherwise null
+     * */
+    private ConfigSection onlyChild(ConfigSection section) {
+        Set<String> keys = section.getKeys(false);
+        if (keys.size() != 1) return null;
+
+        Object child = section.getObject(keys.iterator().next(), null);
+        if (!(child instanceof ConfigSection) || this.structureOf((ConfigSection) child) == null) return null;
+        return (ConfigSection) child;
+    }
+
+    /**
+     * The lookup of {@link #getDouble}, {@link #getLong} and {@link #getBoolean}.
+     *
+     * @return the raw bits of the data, see {@link Primitive}
+     * */
+    private long getPrimitive(Primitive type, ConfigSection section, Consumer<String> error, String key, Scope scope, Object... args) {
+        ConfigStructure structure = this.structures.get(key);
+        if (structure != null) {
+            return this.dispatchPrimitive(type, structure, section, error, scope, args);
+        }
+
+        if (section.isConfigSection(key)) {
+            ConfigSection subSection = (ConfigSection) section.getObject(key, null);
+            ConfigSection child = this.onlyChild(subSection);
+            if (child != null) {
+                return this.dispatchPrimitive(type, this.structureOf(child), child, error, scope, args);
+            }
+
+            return type.bits(this.executeChildrenRecursive(subSection, error, scope, args));
+        }
+
+        return type.read(section, key);
+    }
+
+    /**
+     * The lookup of {@link #executeDouble}, {@link #executeLong} and {@link #executeBoolean}.
+     *
+     * @return the raw bits of the result, see {@link Primitive}
+     * */
+    private long executePrimitive(Primitive type, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (section == null) return type.none;
+        ConfigStructure structure = this.structureOf(section);
+        if (structure == null) return type.none;
+        return this.dispatchPrimitive(type, structure, section, error, scope, args);
+    }
+
+    /**
+     * The primitive counterpart of {@link #dispatch}, which falls back to it while the lang is instrumented,
+     * the structure is memoized or the section was folded, as those work on boxed results.
+     *
+     * @return the raw bits of the result, see {@link Primitive}
+     * */
+    private long dispatchPrimitive(Primitive type, ConfigStructure structure, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        if (this.instrumentation != null || structure.memoization() != null || this.isFolded(structure, section)) {
+            return type.bits(this.dispatch(structure, section, error, scope, args));
+        }
+
+        Budget budget = scope == null ? null : scope.budget();
+        if (budget != null) budget.enter();
+        try {
+            return this.runnable(structure, section, error) ? type.run(structure, section, scope, args) : type.none;
+        } finally {
+            if (budget != null) budget.exit();
+        }
+    }
+
+    private boolean isFolded(ConfigStructure structure, ConfigSection section) {
+        return section instanceof CompiledSection && ((CompiledSection) section).structure() == structure && ((CompiledSection) section).isFolded();
+    }
+
+    /**
+     * @return whether the section matches the structure, otherwise the error is reported
+     * */
+    private boolean runnable(ConfigStructure structure, ConfigSection section, Consumer<String> error) {
+        boolean compiled = section instanceof CompiledSection && ((CompiledSection) section).structure() == structure;
+        ValidationError err = compiled ? ((CompiledSection) section).error() : structure.validate(section);
+        if (err == null) return true;
+
+        report(error, err);
+        return false;
+    }
+
+    /**
+     * Converts a result to a double, unwrapping optionals and single element lists such as the results of a section's children.
+     * */
+    static double toDouble(Object value) {
+        value = unwrap(value);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    static long toLong(Object value) {
+        value = unwrap(value);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    static boolean toBoolean(Object value) {
+        value = unwrap(value);
+        return value instanceof Boolean && (Boolean) value;
+    }
+
+    private static Object unwrap(Object value) {
+        if (value instanceof Optional) return ((Optional<?>) value).orElse(null);
+        if (value instanceof List && ((List<?>) value).size() == 1) return ((List<?>) value).get(0);
+        return value;
+    }
+
+    /**
+     * The types of the primitive paths, which share one dispatch path by passing results around as the raw bits of a long,
+     * the way {@link CompactConfigSection} stores primitives, and only differ in how the bits are converted.
+     * */
+    private enum Primitive {
+        DOUBLE(Double.doubleToRawLongBits(Double.NaN)),
+        LONG(0),
+        BOOLEAN(0);
+
+        /**
+         * The bits of the result when there is none.
+         * */
+        private final long none;
+
+        Primitive(long none) {
+            this.none = none;
+        }
+
+        private long bits(Object value) {
+            switch (this) {
+                case DOUBLE: return Double.doubleToRawLongBits(toDouble(value));
+                case LONG: return toLong(value);
+                default: return toBoolean(value) ? 1 : 0;
+            }
+        }
+
+        private long read(ConfigSection section, String key) {
+            switch (this) {
+                case DOUBLE: return Double.doubleToRawLongBits(section.getDouble(key, Double.NaN));
+                case LONG: return section.getLong(key, 0);
+                default: return section.getBoolean(key, false) ? 1 : 0;
+            }
+        }
+
+        private long run(ConfigStructure structure, ConfigSection section, Scope scope, Object... args) {
+            switch (this) {
+                case DOUBLE: return Double.doubleToRawLongBits(structure.runDouble(section, scope, args));
+                case LONG: return structure.runLong(section, scope, args);
+                default: return structure.runBoolean(section, scope, args) ? 1 : 0;
+            }
+        }
+    }
+
+    private CompletableFuture<Object> dispatchAsync(ConfigStructure structure, ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
+        Budget budget = scope == null ? null : scope.budget();
+        if (budget != null) {
+            try {
+                budget.enter();
+            } catch (BudgetExceededException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        Instrumentation instrumentation = this.instrumentation;
+        boolean compiled = section instanceof CompiledSection && ((CompiledSection) section).structure() == structure;
+        ValidationError err = instrumentation == null ? null
+                : compiled ? ((CompiledSection) section).error() : this.validate(instrumentation, structure, section);
+        Object context = instrumentation == null ? null : instrumentation.beforeExecuteAsync(structure, section);
+        long start = instrumentation == null ? 0 : System.nanoTime();
+
+        CompletableFuture<Object> future;
+        try {
+            future = compiled
+                    ? ((CompiledSection) section).executeAsync(error, scope, this.executor, args)
+                    : structure.executeAsync(section, error, scope, this.executor, args);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        if (budget == null && instrumentation == null) return future;
+        return future.whenComplete((result, failure) -> {
+            if (instrumentation != null) instrumentation.afterExecuteAsync(structure, section, context, err, System.nanoTime() - start);
+            if (budget != null) budget.exit();
+        });
+    }
+
+    private ValidationError validate(Instrumentation instrumentation, ConfigStructure structure, ConfigSection section) {
+        Object context = instrumentation.beforeMatches(structure, section);
+        long start = System.nanoTime();
+        ValidationError err = structure.validate(section);
+        instrumentation.afterMatches(structure, section, context, err, System.nanoTime() - start);
+        return err;
+    }
+
+    /**
+     * Pushes the sections of the section in reverse, so they are popped in order.
+     * */
+    private void pushSections(WorkStack stack, ConfigSection section, int value) {
+        List<ConfigSection> sections = this.sections(section);
+        for (int i = sections.size() - 1; i >= 0; i--) {
+            stack.push(sections.get(i), null, value);
+        }
+    }
+
+    private List<ConfigSection> sections(ConfigSection section) {
+        if (section instanceof CompiledSection) return ((CompiledSection) section).sections();
+
+        List<ConfigSection> sections = new ArrayList<>();
+        for (String key : section.getKeys(false)) {
+            section.getConfigSection(key).ifPresent(sections::add);
+        }
+        return sections;
     }
 }
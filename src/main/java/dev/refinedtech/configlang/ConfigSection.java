@@ -2,12 +2,25 @@ package dev.refinedtech.configlang;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("unused")
 public abstract class ConfigSection {
 
+    private static final AtomicLong STAMPS = new AtomicLong();
+
+    private volatile long modificationStamp = STAMPS.incrementAndGet();
+
+    /**
+     * The most recent validations of this section against distinct structures, see {@link ConfigStructure#matches(ConfigSection)}.
+     * Replaced as a whole when a validation is added, so readers never see a partially updated cache.
+     * */
+    volatile ConfigStructure.Validation[] validations = ConfigStructure.Validation.NONE;
+
     public abstract String getName();
 
     public abstract String getPath();
@@ -28,30 +41,145 @@ public abstract class ConfigSection {
 
     public abstract Object getObject(String key, Object def);
 
+    /**
+     * @return the value of the key as a double, or the default if it is missing or not a number
+     * */
+    public double getDouble(String key, double def) {
+        Object value = this.getObject(key, null);
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
+    }
+
+    /**
+     * @return the value of the key as a long, or the default if it is missing or not a number
+     * */
+    public long getLong(String key, long def) {
+        Object value = this.getObject(key, null);
+        return value instanceof Number ? ((Number) value).longValue() : def;
+    }
+
+    /**
+     * @return the value of the key as an int, or the default if it is missing or not a number
+     * */
+    public int getInt(String key, int def) {
+        Object value = this.getObject(key, null);
+        return value instanceof Number ? ((Number) value).intValue() : def;
+    }
+
+    /**
+     * @return the value of the key as a boolean, or the default if it is missing or not a boolean
+     * */
+    public boolean getBoolean(String key, boolean def) {
+        Object value = this.getObject(key, null);
+        return value instanceof Boolean ? (Boolean) value : def;
+    }
+
     public abstract void set(String key, Object value);
 
+    /**
+     * Marks this section as modified, invalidating cached validations of it.
+     * Implementations that {@link #tracksModifications() track their modifications} must call this whenever their contents change,
+     * in {@link #set(String, Object)} as well as when loading.
+     * */
+    protected final void modified() {
+        this.modificationStamp = STAMPS.incrementAndGet();
+    }
+
+    /**
+     * Implementations that call {@link #modified()} on every change override this to return true,
+     * so validations of the section are cached until it is modified.
+     * Sections that do not track their modifications are validated again every time.
+     * */
+    protected boolean tracksModifications() {
+        return false;
+    }
+
+    /**
+     * @return a stamp that changes every time this section is modified, if it {@link #tracksModifications() tracks its modifications}
+     * */
+    public final long modificationStamp() {
+        return this.modificationStamp;
+    }
+
+    /**
+     * Stamps are taken from a counter that only grows, so the greatest stamp of a tree changes whenever one of its sections is modified,
+     * including when a section is replaced, as that modifies its parent.
+     * Compiled and compact sections are immutable, so their sections are not looked at.
+     *
+     * @return the greatest modification stamp of the section and its sections, or -1 if one of them does not track its modifications
+     * */
+    final long treeStamp() {
+        long stamp = -1;
+
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(this, null, 0);
+            while (stack.size() > base) {
+                ConfigSection section = (ConfigSection) stack.first();
+                stack.pop();
+                if (!section.tracksModifications()) return -1;
+
+                stamp = Math.max(stamp, section.modificationStamp());
+                if (section instanceof CompiledSection || section instanceof CompactConfigSection) continue;
+
+                for (String key : section.getKeys(false)) {
+                    Optional<ConfigSection> child = section.getConfigSection(key);
+                    if (child.isPresent()) stack.push(child.get(), null, 0);
+                }
+            }
+        } finally {
+            stack.truncate(base);
+        }
+        return stamp;
+    }
+
     public abstract void save(File file) throws IOException;
 
     public abstract void load(File file) throws IOException;
 
+    /**
+     * Walks the tree on the work stack of the thread instead of recursing, so deep trees do not overflow the thread stack.
+     * Child sections are printed by this method, overrides of it are only called for the section they are called on.
+     * */
     public String treeString(int depth) {
         StringBuilder sb = new StringBuilder();
         sb.append(getName()).append(" (Section)");
         sb.append("\n");
-        ++depth;
-        for (String key : getKeys(false)) {
-            sb.append("  ".repeat(Math.max(0, depth)));
-            sb.append(key);
-            if (isConfigSection(key)) {
-                sb.append(" ↓ ");
-                sb.append("\n");
-                sb.append("  ".repeat(Math.max(0, depth) + 1));
-                sb.append(getConfigSection(key).orElseThrow().treeString(depth + 1));
-            } else {
-                sb.append(" = ");
-                sb.append(getObject(key));
-                sb.append("\n");
+
+        // The value of a frame is the depth of the keys of its section
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(this, this.getKeys(false).iterator(), depth + 1);
+            while (stack.size() > base) {
+                ConfigSection section = (ConfigSection) stack.first();
+                @SuppressWarnings("unchecked")
+                Iterator<String> keys = (Iterator<String>) stack.second();
+                int keyDepth = stack.value();
+                if (!keys.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+
+                String key = keys.next();
+                sb.append("  ".repeat(Math.max(0, keyDepth)));
+                sb.append(key);
+                if (section.isConfigSection(key)) {
+                    ConfigSection child = section.getConfigSection(key).orElseThrow();
+                    sb.append(" ↓ ");
+                    sb.append("\n");
+                    sb.append("  ".repeat(Math.max(0, keyDepth) + 1));
+                    sb.append(child.getName()).append(" (Section)");
+                    sb.append("\n");
+                    stack.push(child, child.getKeys(false).iterator(), keyDepth + 2);
+                } else {
+                    sb.append(" = ");
+                    sb.append(section.getObject(key));
+                    sb.append("\n");
+                }
             }
+        } finally {
+            stack.truncate(base);
         }
         return sb.toString();
     }
@@ -60,4 +188,39 @@ public abstract class ConfigSection {
         return treeString(0);
     }
 
+    /**
+     * Collects the keys of the section that are not sections, followed by the keys of its sections the same way,
+     * which is what {@link #getKeys(boolean)} returns for deep keys.
+     * */
+    protected static Set<String> deepKeys(ConfigSection section) {
+        Set<String> keys = new LinkedHashSet<>();
+
+        // The second object of a frame is the iterator over the keys of its section
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(section, section.getKeys(false).iterator(), 0);
+            while (stack.size() > base) {
+                ConfigSection current = (ConfigSection) stack.first();
+                @SuppressWarnings("unchecked")
+                Iterator<String> iterator = (Iterator<String>) stack.second();
+                if (!iterator.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+
+                String key = iterator.next();
+                Optional<ConfigSection> child = current.getConfigSection(key);
+                if (child.isPresent()) {
+                    stack.push(child.get(), child.get().getKeys(false).iterator(), 0);
+                } else {
+                    keys.add(key);
+                }
+            }
+        } finally {
+            stack.truncate(base);
+        }
+        return keys;
+    }
+
 }
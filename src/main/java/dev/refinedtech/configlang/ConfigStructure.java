@@ -3,9 +3,13 @@ package dev.refinedtech.configlang;
 import dev.refinedtech.configlang.scope.Scope;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -20,6 +24,7 @@ public abstract class ConfigStructure {
     private final String key;
     private final List<ConfigStructure> required = new ArrayList<>();
     private final boolean childrenRequired;
+    private final Schema schema;
 
     public ConfigStructure(String key, ConfigStructure... children) {
         this(key, children.length > 0, children);
@@ -29,6 +34,7 @@ public abstract class ConfigStructure {
         this.key = key;
         this.childrenRequired = childrenRequired;
         Collections.addAll(required, children);
+        this.schema = new Schema(key, this.required);
     }
 
     public static ConfigStructure keyStructure(String key) {
@@ -41,82 +47,291 @@ public abstract class ConfigStructure {
     }
 
     public final Object execute(ConfigSection section, Consumer<String> error, Scope scope, Object... args) {
-        String err = this.matches(section);
+        ValidationError err = this.validate(section);
         if (err != null) {
-            if (error != null) error.accept(err);
+            ConfigLang.report(error, err);
             return null;
         }
 
-        return this.run(section, scope, args);
+        return this.invoke(section, scope, args);
+    }
+
+    /**
+     * The asynchronous counterpart of {@link #execute(ConfigSection, Consumer, Scope, Object...)}.
+     * */
+    public final CompletableFuture<Object> executeAsync(ConfigSection section, Consumer<String> error, Scope scope, Executor executor, Object... args) {
+        ValidationError err = this.validate(section);
+        if (err != null) {
+            ConfigLang.report(error, err);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return this.runAsync(section, scope, executor, args);
+    }
+
+    /**
+     * The asynchronous counterpart of {@link #run(ConfigSection, Scope, Object...)}, used by {@link ConfigLang#executeAsync}.
+     * By default it runs {@link #run(ConfigSection, Scope, Object...)} on the executor.
+     * Structures that wait on I/O should override it to return a future that the I/O completes, without blocking a thread,
+     * and execute their sections with the async methods of the lang.
+     * */
+    protected CompletableFuture<Object> runAsync(ConfigSection section, Scope scope, Executor executor, Object... args) {
+        return CompletableFuture.supplyAsync(() -> this.invoke(section, scope, args), executor);
+    }
+
+    /**
+     * Runs the structure, through its {@link #memoization()} if it has one.
+     * */
+    final Object invoke(ConfigSection section, Scope scope, Object... args) {
+        Memoization memoization = this.memoization();
+        if (memoization == null || !this.returnsData()) return this.run(section, scope, args);
+        return memoization.execute(this, section, scope, args);
     }
 
     public boolean returnsData() {
         return false;
     }
 
+    /**
+     * A pure structure returns data that only depends on the values of its section and the results of its sections.
+     * It must not modify variables, use the args, or have any other side effect,
+     * and may only read the variables its values refer to as {@code $name}, as sections with such values are never folded.
+     * When a pure structure's sections are all constant, {@link ConfigLang#compile(ConfigSection, Consumer)}
+     * runs it once and replaces it with its result.
+     *
+     * @return whether this structure is pure, only considered if it {@link #returnsData()}
+     * */
+    public boolean isPure() {
+        return false;
+    }
+
+    /**
+     * Opts a data structure into caching its results, see {@link Memoization}.
+     * Only structures whose results depend on nothing but their section, args and variables should be memoized.
+     *
+     * @return the cache of this structure, the same instance on every call, or null to not cache results
+     * */
+    public Memoization memoization() {
+        return null;
+    }
+
+    /**
+     * Called when the section is compiled, after its sections were compiled.
+     * Sections whose results are known by then can be looked up with {@link ConfigLang#constant(ConfigSection)}.
+     *
+     * @return the keys of the sections that will never be executed, and are left out of the compiled program
+     * */
+    public Collection<String> deadBranches(ConfigSection section, ConfigLang lang) {
+        return Collections.emptySet();
+    }
+
     protected abstract Object run(ConfigSection section, Scope scope, Object... args);
 
+    /**
+     * The primitive counterpart of {@link #run(ConfigSection, Scope, Object...)}, used by {@link ConfigLang#executeDouble}.
+     * By default it unboxes the result of run, numeric structures should override it to compute the result without boxing.
+     * */
+    protected double runDouble(ConfigSection section, Scope scope, Object... args) {
+        return ConfigLang.toDouble(this.invoke(section, scope, args));
+    }
+
+    /**
+     * @see #runDouble(ConfigSection, Scope, Object...)
+     * */
+    protected long runLong(ConfigSection section, Scope scope, Object... args) {
+        return ConfigLang.toLong(this.invoke(section, scope, args));
+    }
+
+    /**
+     * @see #runDouble(ConfigSection, Scope, Object...)
+     * */
+    protected boolean runBoolean(ConfigSection section, Scope scope, Object... args) {
+        return ConfigLang.toBoolean(this.invoke(section, scope, args));
+    }
+
+    /**
+     * @return null if the configuration matches, otherwise the error message
+     * @see #validate(ConfigSection)
+     * */
     public final String matches(ConfigSection configuration) {
-        // If the configuration's name is not the same as this key, return false
-        if (!configuration.getName().equalsIgnoreCase(this.key)) {
-            return String.format("The configuration %s is not of the same name as %s", configuration.getPath(), key());
-        }
+        ValidationError err = this.validate(configuration);
+        return err == null ? null : err.message();
+    }
 
-        for (ConfigStructure required : this.required) {
-            if (required.childrenRequired() && !configuration.isConfigSection(required.key())) {
-                return String.format("The key %s.%s should be a configuration section, however it %s!",
-                        configuration.getPath(),
-                        required.key(),
-                        configuration.contains(required.key())
-                                ? "is not a configuration section"
-                                : "does not exist");
-            }
+    /**
+     * Validates the configuration against this structure.
+     * The result is cached on the configuration, for the last few structures it was validated against,
+     * and is reused until the configuration or one of the sections that were validated with it is modified.
+     * Results are only cached if all of those sections {@link ConfigSection#tracksModifications() track their modifications}.
+     *
+     * @return null if the configuration matches, otherwise the error
+     * */
+    public final ValidationError validate(ConfigSection configuration) {
+        Validation[] cached = configuration.validations;
+        for (Validation validation : cached) {
+            if (validation.structure == this && validation.isCurrent()) return validation.error;
+        }
 
-            // If the ConfigStructure has required sub-structures
-            if (!required.children().isEmpty()) {
-                if (!configuration.isConfigSection(required.key())) {
-                    return String.format("The key %s.%s required child elements but none found!", configuration.getPath(), required.key());
-                }
+        Validation validation = new Validation(this);
+        validation.error = this.validate(configuration, validation);
+        if (validation.tracked) configuration.validations = validation.cache(cached);
+        return validation.error;
+    }
 
-                // Get the ConfigSection from the current ConfigSection for that ConfigStructure
-                Optional<ConfigSection> opt = configuration.getConfigSection(required.key());
+    private ValidationError validate(ConfigSection configuration, Validation validation) {
+        // Compact sections are immutable, so only the root has to be tracked
+        if (configuration instanceof CompactConfigSection && this.schema.conforms((CompactConfigSection) configuration)) {
+            validation.depend(configuration);
+            return null;
+        }
 
-                ConfigSection config = opt.orElse(null);
+        ValidationError err = this.validateName(configuration, validation);
+        if (err != null) return err;
 
-                // If it doesn't exist return false
-                if (config == null) {
-                    return String.format("Could not fetch configuration %s.%s", configuration.getPath(), required.key());
+        // Depth first on the work stack of the thread, with the value of a frame being the index of the next required structure
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            stack.push(this, configuration, 0);
+            while (stack.size() > base) {
+                ConfigStructure structure = (ConfigStructure) stack.first();
+                ConfigSection section = (ConfigSection) stack.second();
+                int index = stack.value();
+                if (index == structure.required.size()) {
+                    stack.pop();
+                    continue;
                 }
+                stack.value(index + 1);
 
-                // If it exists, and the ConfigStructure does not match that ConfigurationSection return false
-                String err = required.matches(config);
-                if (err != null) {
-                    return err;
+                ConfigStructure required = structure.required.get(index);
+                if (required.childrenRequired() && !section.isConfigSection(required.key())) {
+                    return new ValidationError(section.contains(required.key())
+                            ? ValidationError.Code.NOT_A_SECTION
+                            : ValidationError.Code.MISSING_SECTION,
+                            section.getPath(),
+                            required.key());
                 }
 
-                continue;
-            }
+                // If the ConfigStructure has required sub-structures
+                if (!required.required.isEmpty()) {
+                    if (!section.isConfigSection(required.key())) {
+                        return new ValidationError(ValidationError.Code.MISSING_CHILDREN, section.getPath(), required.key());
+                    }
+
+                    // Get the ConfigSection from the current ConfigSection for that ConfigStructure
+                    Optional<ConfigSection> opt = section.getConfigSection(required.key());
+
+                    ConfigSection config = opt.orElse(null);
+
+                    // If it doesn't exist return false
+                    if (config == null) {
+                        return new ValidationError(ValidationError.Code.UNAVAILABLE_SECTION, section.getPath(), required.key());
+                    }
+
+                    // If it exists, and the ConfigStructure does not match that ConfigurationSection return false
+                    err = required.validateName(config, validation);
+                    if (err != null) {
+                        return err;
+                    }
 
-            // The config structure has no children, so we check if the ConfigurationSection contains the ConfigStructure's key
-            // If it doesn't, return false
-            if (!configuration.contains(required.key())) {
-                return String.format("The configuration %s does not contain the required key %s", configuration.getPath(), required.key());
+                    // Its required structures are validated before the remaining ones of this structure
+                    stack.push(required, config, 0);
+                    continue;
+                }
+
+                // The config structure has no children, so we check if the ConfigurationSection contains the ConfigStructure's key
+                // If it doesn't, return false
+                if (!section.contains(required.key())) {
+                    return new ValidationError(ValidationError.Code.MISSING_KEY, section.getPath(), required.key());
+                }
             }
+        } finally {
+            stack.truncate(base);
         }
 
         // The structure of the ConfigurationSection is correct
         return null;
     }
 
+    private ValidationError validateName(ConfigSection configuration, Validation validation) {
+        validation.depend(configuration);
+
+        // If the configuration's name is not the same as this key, return false
+        if (!configuration.getName().equalsIgnoreCase(this.key)) {
+            return new ValidationError(ValidationError.Code.NAME_MISMATCH, configuration.getPath(), key());
+        }
+        return null;
+    }
+
     public final String key() {
         return key;
     }
 
     public final List<ConfigStructure> children() {
-        return required;
+        return Collections.unmodifiableList(required);
     }
 
     public final boolean childrenRequired() {
         return childrenRequired;
     }
+
+    Schema schema() {
+        return schema;
+    }
+
+    /**
+     * The result of a validation, along with the modification stamps of every section it looked at.
+     * */
+    static final class Validation {
+
+        static final Validation[] NONE = new Validation[0];
+
+        /**
+         * The number of structures a section keeps validations for, so probing a few optional structures does not evict each other.
+         * */
+        private static final int CACHE_SIZE = 4;
+
+        private final ConfigStructure structure;
+        private ConfigSection[] sections = new ConfigSection[1];
+        private long[] stamps = new long[1];
+        private int size;
+        private boolean tracked = true;
+        private ValidationError error;
+
+        private Validation(ConfigStructure structure) {
+            this.structure = structure;
+        }
+
+        private void depend(ConfigSection section) {
+            tracked &= section.tracksModifications();
+            if (size == sections.length) {
+                sections = Arrays.copyOf(sections, size * 2);
+                stamps = Arrays.copyOf(stamps, size * 2);
+            }
+            sections[size] = section;
+            stamps[size] = section.modificationStamp();
+            size++;
+        }
+
+        /**
+         * @return the cache with this validation added in front, replacing the one of the same structure or the oldest one
+         * */
+        private Validation[] cache(Validation[] cached) {
+            Validation[] cache = new Validation[Math.min(cached.length + 1, CACHE_SIZE)];
+            cache[0] = this;
+            int size = 1;
+            for (Validation validation : cached) {
+                if (size == cache.length) break;
+                if (validation.structure != this.structure) cache[size++] = validation;
+            }
+            return size == cache.length ? cache : Arrays.copyOf(cache, size);
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < size; i++) {
+                if (sections[i].modificationStamp() != stamps[i]) return false;
+            }
+            return true;
+        }
+    }
 }
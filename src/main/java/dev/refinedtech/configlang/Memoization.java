@@ -0,0 +1,210 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.scope.Scope;
+import dev.refinedtech.configlang.variables.VariableReads;
+import dev.refinedtech.configlang.variables.VariableStorage;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoization caches the results of a data structure, see {@link ConfigStructure#memoization()}.
+ * <p>
+ * A result is cached for the section it was computed for, the args it was called with,
+ * and the values of the variables the structure read while computing it, which are tracked automatically.
+ * It is reused as long as neither the section nor any of its sections are modified and those variables still hold equal values,
+ * so the variables should be immutable or compare by identity.
+ * Results of sections that do not {@link ConfigSection#tracksModifications() track their modifications} are not cached.
+ * Variables set by the structure stay in a child scope and are not visible to the caller.
+ * Results are evicted least recently used first once there are more than the maximum size, and once they are older than the time to live.
+ * */
+@SuppressWarnings("unused")
+public final class Memoization {
+
+    private static final Object ABSENT = new Object();
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final int maximumSize;
+    private final long timeToLive;
+    private final Map<Section, String[]> reads;
+    private final Map<Key, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param timeToLive how long results are reused, or null to reuse them until they are evicted or invalidated
+     * */
+    public Memoization(int maximumSize, Duration timeToLive) {
+        if (maximumSize <= 0) throw new IllegalArgumentException("The maximum size must be positive");
+
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive == null ? Long.MAX_VALUE : timeToLive.toNanos();
+        this.reads = new Bounded<>(maximumSize);
+        this.entries = new Bounded<>(maximumSize);
+    }
+
+    Object execute(ConfigStructure structure, ConfigSection section, Scope scope, Object... args) {
+        if (args == null) args = NO_ARGS;
+        long stamp = section.treeStamp();
+        if (stamp == -1) return structure.run(section, scope, args);
+
+        Section target = new Section(section, stamp);
+        VariableStorage variables = scope.variables();
+
+        String[] names;
+        synchronized (this) {
+            names = this.reads.get(target);
+        }
+
+        if (names != null) {
+            Key key = new Key(target, args, names, values(variables, names));
+            Entry entry;
+            synchronized (this) {
+                entry = this.entries.get(key);
+                if (entry != null && System.nanoTime() - entry.created > this.timeToLive) {
+                    this.entries.remove(key);
+                    entry = null;
+                }
+            }
+            if (entry != null) {
+                this.hits.increment();
+                return entry.value;
+            }
+        }
+        this.misses.increment();
+
+        VariableReads tracked = new VariableReads();
+        Object value = structure.run(section, scope.trackedScope(scope.name(), tracked), args);
+        if (tracked.readAllVariables()) return value;
+
+        names = tracked.names().toArray(new String[0]);
+        Key key = new Key(target, args.clone(), names, values(variables, names));
+        synchronized (this) {
+            this.reads.put(target, names);
+            this.entries.put(key, new Entry(value, System.nanoTime()));
+        }
+        return value;
+    }
+
+    private static Object[] values(VariableStorage variables, String[] names) {
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Optional<Object> value = variables.getRaw(names[i]);
+            values[i] = value.isPresent() ? value.get() : ABSENT;
+        }
+        return values;
+    }
+
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized void clear() {
+        this.reads.clear();
+        this.entries.clear();
+    }
+
+    private static final class Bounded<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maximumSize;
+
+        private Bounded(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return this.size() > this.maximumSize;
+        }
+    }
+
+    /**
+     * A section compared by identity, along with the {@link ConfigSection#treeStamp() stamp of its tree} at the time of the execution.
+     * */
+    private static final class Section {
+
+        private final ConfigSection section;
+        private final long stamp;
+
+        private Section(ConfigSection section, long stamp) {
+            this.section = section;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Section)) return false;
+            Section other = (Section) o;
+            return this.section == other.section && this.stamp == other.stamp;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.section) * 31 + Long.hashCode(this.stamp);
+        }
+    }
+
+    private static final class Key {
+
+        private final Section section;
+        private final Object[] args;
+        private final String[] names;
+        private final Object[] values;
+        private final int hash;
+
+        private Key(Section section, Object[] args, String[] names, Object[] values) {
+            this.section = section;
+            this.args = args;
+            this.names = names;
+            this.values = values;
+            this.hash = Objects.hash(section, Arrays.hashCode(args), Arrays.hashCode(names), Arrays.hashCode(values));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return this.hash == other.hash
+                    && this.section.equals(other.section)
+                    && Arrays.equals(this.args, other.args)
+                    && Arrays.equals(this.names, other.names)
+                    && Arrays.equals(this.values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long created;
+
+        private Entry(Object value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package dev.refinedtech.configlang;
+
+import dev.refinedtech.configlang.scope.Scope;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.function.Consumer;
+
+/**
+ * Compiles the sections of a {@link CompiledProgram} plan into a single method handle that executes them in order.
+ * <p>
+ * Every section is turned into a method handle that is specialized for it: folded sections return their value,
+ * and valid sections invoke their structure with the section bound, without looking at the section at all.
+ * The handles are combined into one handle per plan, which the JIT can inline the structures into,
+ * and which is collected along with the program.
+ * */
+@SuppressWarnings("unused")
+final class PlanCompiler {
+
+    private static final MethodType TYPE = MethodType.methodType(Object.class, Consumer.class, Scope.class, Object[].class);
+    private static final MethodType EXECUTE_TYPE = MethodType.methodType(void.class, Consumer.class, Scope.class, Object[].class, Object[].class);
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle EXECUTE;
+    private static final MethodHandle STORE = MethodHandles.arrayElementSetter(Object[].class);
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            INVOKE = lookup.findVirtual(ConfigStructure.class, "invoke", MethodType.methodType(Object.class, ConfigSection.class, Scope.class, Object[].class))
+                    .asFixedArity();
+            EXECUTE = lookup.findVirtual(CompiledSection.class, "execute", TYPE).asFixedArity();
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PlanCompiler() {
+    }
+
+    /**
+     * @return the code that executes the sections in order, storing the result of every section at its index
+     * */
+    static Specialized compile(CompiledSection[] sections) {
+        MethodHandle[] steps = new MethodHandle[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            // (results, error, scope, args) -> results[i] = handle(error, scope, args)
+            MethodHandle store = MethodHandles.collectArguments(MethodHandles.insertArguments(STORE, 1, i), 1, handle(sections[i]));
+            steps[i] = MethodHandles.permuteArguments(store, EXECUTE_TYPE, 3, 0, 1, 2);
+        }
+        return new Specialized(combine(steps, 0, steps.length));
+    }
+
+    /**
+     * @return a handle of the type of {@link CompiledSection#execute} that behaves like executing the section
+     * */
+    private static MethodHandle handle(CompiledSection section) {
+        if (section.isFolded() || section.structure() == null) {
+            Object value = section.isFolded() ? section.foldedValue() : null;
+            return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0, TYPE.parameterList());
+        }
+
+        // Errors are reported by the section itself
+        if (section.error() != null) return EXECUTE.bindTo(section);
+
+        MethodHandle invoke = MethodHandles.insertArguments(INVOKE, 0, section.structure(), section);
+        return MethodHandles.dropArguments(invoke, 0, Consumer.class);
+    }
+
+    /**
+     * Combines the steps into a balanced tree of handles that run one half and then the other,
+     * so invoking the plan nests only logarithmically deep no matter how many sections it has.
+     * */
+    private static MethodHandle combine(MethodHandle[] steps, int from, int to) {
+        if (from == to) return MethodHandles.empty(EXECUTE_TYPE);
+        if (to - from == 1) return steps[from];
+
+        int middle = (from + to) >>> 1;
+        return MethodHandles.foldArguments(combine(steps, middle, to), combine(steps, from, middle));
+    }
+
+    /**
+     * Executes the sections of a plan, see {@link #compile(CompiledSection[])}.
+     * */
+    static final class Specialized {
+
+        private final MethodHandle handle;
+
+        private Specialized(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        void execute(Consumer<String> error, Scope scope, Object[] args, Object[] results) {
+            try {
+                this.handle.invokeExact(error, scope, args, results);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+    }
+}
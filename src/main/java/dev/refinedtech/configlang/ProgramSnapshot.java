@@ -0,0 +1,387 @@
+package dev.refinedtech.configlang;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * ProgramSnapshot stores a {@link CompiledProgram} in a versioned binary file, so it can be loaded without parsing or validating it again.
+ * <p>
+ * Loading a snapshot memory-maps the file and materializes sections lazily, as they are accessed.
+ * The variables the values of a section refer to are given a {@link ConfigLang#slot(String) slot} once the section is materialized.
+ * A snapshot records the structures every section resolved to when it was compiled,
+ * and is rejected with a {@link StaleSnapshotException} if they no longer match the structures submitted to the {@link ConfigLang}.
+ * Only null, integer, long, double, boolean and string values and lists of them can be stored.
+ * Sections folded to a constant when they were compiled stay folded, unless their value can not be stored.
+ * */
+@SuppressWarnings("unused")
+public final class ProgramSnapshot {
+
+    private static final int MAGIC = 0x434C5350;
+    /**
+     * Version 2 added the constant and folded state of sections, version 1 snapshots are still read.
+     * */
+    private static final int VERSION = 2;
+    private static final int FIRST_VERSION = 1;
+
+    private static final byte CONSTANT = 1;
+    private static final byte FOLDED = 2;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte SECTION = 6;
+    private static final byte LIST = 7;
+
+    private static final ValidationError.Code[] CODES = ValidationError.Code.values();
+
+    private ProgramSnapshot() {
+    }
+
+    public static void write(CompiledProgram program, Path path) throws IOException {
+        Writer writer = new Writer();
+        int root = writer.writeTree((CompiledSection) program.section());
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(writer.strings.size());
+            int offset = 0;
+            for (byte[] string : writer.strings) {
+                out.writeInt(offset);
+                offset += string.length;
+            }
+            out.writeInt(offset);
+            for (byte[] string : writer.strings) {
+                out.write(string);
+            }
+
+            out.writeInt(writer.structures.size());
+            for (Map.Entry<Integer, ConfigStructure> entry : writer.structures.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeBoolean(entry.getValue() != null);
+                out.writeLong(entry.getValue() == null ? 0 : fingerprint(entry.getValue()));
+            }
+
+            out.writeInt(root);
+            out.writeInt(writer.nodes.size());
+            writer.nodes.writeTo(out);
+        }
+    }
+
+    /**
+     * Loads a snapshot written by {@link #write(CompiledProgram, Path)}.
+     *
+     * @throws StaleSnapshotException if the structures submitted to the lang differ from the ones the snapshot was compiled with
+     * */
+    public static CompiledProgram load(ConfigLang lang, Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a program snapshot: " + path);
+            int version = buffer.getInt();
+            if (version < FIRST_VERSION || version > VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + path);
+
+            Reader reader = new Reader(lang, buffer, version);
+            return new CompiledProgram(lang, reader.materialize(reader.root));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt program snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * @return a hash of everything {@link ConfigStructure#validate(ConfigSection)} depends on
+     * */
+    static long fingerprint(ConfigStructure structure) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, structure.key().toLowerCase());
+        hash = (hash ^ (structure.childrenRequired() ? 1 : 0)) * 0x100000001b3L;
+        for (ConfigStructure child : structure.children()) {
+            hash = (hash ^ fingerprint(child)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Thrown when a snapshot was compiled against structures that differ from the ones currently submitted.
+     * */
+    public static final class StaleSnapshotException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public StaleSnapshotException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Writer {
+
+        private final List<byte[]> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final Map<Integer, ConfigStructure> structures = new LinkedHashMap<>();
+        private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(nodes);
+
+        private int string(String value) {
+            Integer id = this.stringIds.get(value);
+            if (id == null) {
+                id = this.strings.size();
+                this.strings.add(value.getBytes(StandardCharsets.UTF_8));
+                this.stringIds.put(value, id);
+            }
+            return id;
+        }
+
+        /**
+         * Writes the section and its sections, each section after its own sections, so the offsets of its sections are known.
+         *
+         * @return the offset of the section
+         * */
+        private int writeTree(CompiledSection root) throws IOException {
+            // A section comes before its sections in depth first order, so the sections are written in reverse
+            List<CompiledSection> order = new ArrayList<>();
+            WorkStack stack = WorkStack.current();
+            int base = stack.size();
+            try {
+                stack.push(root, null, 0);
+                while (stack.size() > base) {
+                    CompiledSection section = (CompiledSection) stack.first();
+                    stack.pop();
+                    order.add(section);
+                    for (ConfigSection child : section.sections()) {
+                        stack.push(child, null, 0);
+                    }
+                }
+            } finally {
+                stack.truncate(base);
+            }
+
+            Map<ConfigSection, Integer> offsets = new IdentityHashMap<>();
+            for (int i = order.size() - 1; i >= 0; i--) {
+                offsets.put(order.get(i), this.writeNode(order.get(i), offsets));
+            }
+            return offsets.get(root);
+        }
+
+        private int writeNode(CompiledSection section, Map<ConfigSection, Integer> offsets) throws IOException {
+            int name = this.string(section.getName());
+            this.structures.putIfAbsent(name, section.structure());
+
+            int offset = this.out.size();
+            this.out.writeInt(name);
+            this.out.writeInt(this.string(section.getPath()));
+
+            ValidationError error = section.error();
+            this.out.writeByte(error == null ? -1 : error.code().ordinal());
+            if (error != null) {
+                this.out.writeInt(this.string(error.path()));
+                this.out.writeInt(this.string(error.key()));
+            }
+
+            boolean folded = section.isFolded() && storable(section.foldedValue());
+            this.out.writeByte((section.isConstant() ? CONSTANT : 0) | (folded ? FOLDED : 0));
+            if (folded) this.writeValue(section.getPath(), section.getName(), section.foldedValue());
+
+            this.out.writeInt(section.getKeys(false).size());
+            for (String key : section.getKeys(false)) {
+                this.out.writeInt(this.string(key));
+                Optional<ConfigSection> child = section.getConfigSection(key);
+                if (child.isPresent()) {
+                    this.out.writeByte(SECTION);
+                    this.out.writeInt(offsets.get(child.get()));
+                } else {
+                    this.writeValue(section.getPath(), key, section.getObject(key, null));
+                }
+            }
+            return offset;
+        }
+
+        private static boolean storable(Object value) {
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    if (!storable(item)) return false;
+                }
+                return true;
+            }
+            return value == null || value instanceof Integer || value instanceof Long || value instanceof Double
+                    || value instanceof Boolean || value instanceof String;
+        }
+
+        private void writeValue(String path, String key, Object value) throws IOException {
+            if (value == null) {
+                this.out.writeByte(NULL);
+            } else if (value instanceof Integer) {
+                this.out.writeByte(INT);
+                this.out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                this.out.writeByte(LONG);
+                this.out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                this.out.writeByte(DOUBLE);
+                this.out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                this.out.writeByte(BOOLEAN);
+                this.out.writeBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                this.out.writeByte(STRING);
+                this.out.writeInt(this.string((String) value));
+            } else if (value instanceof Collection) {
+                Collection<?> list = (Collection<?>) value;
+                this.out.writeByte(LIST);
+                this.out.writeInt(list.size());
+                for (Object item : list) {
+                    this.writeValue(path, key, item);
+                }
+            } else {
+                throw new IOException(String.format("The value of %s.%s can not be stored in a snapshot: %s", path, key, value.getClass().getName()));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer buffer;
+        private final int[] stringOffsets;
+        private final int stringsStart;
+        private final String[] strings;
+        private final Map<Integer, ConfigStructure> structures = new HashMap<>();
+        private final int root;
+        private final int nodesStart;
+        private final int version;
+        private final ConfigLang lang;
+
+        private Reader(ConfigLang lang, ByteBuffer buffer, int version) throws IOException {
+            this.lang = lang;
+            this.buffer = buffer;
+            this.version = version;
+
+            int count = buffer.getInt();
+            this.stringOffsets = new int[count + 1];
+            for (int i = 0; i <= count; i++) {
+                this.stringOffsets[i] = buffer.getInt();
+            }
+            this.strings = new String[count];
+            this.stringsStart = buffer.position();
+            buffer.position(this.stringsStart + this.stringOffsets[count]);
+
+            int structures = buffer.getInt();
+            for (int i = 0; i < structures; i++) {
+                int name = buffer.getInt();
+                boolean resolved = buffer.get() != 0;
+                long fingerprint = buffer.getLong();
+
+                ConfigStructure structure = lang.get(this.string(name)).orElse(null);
+                if (resolved && (structure == null || fingerprint(structure) != fingerprint)) {
+                    throw new StaleSnapshotException("The structure " + this.string(name) + " changed since the snapshot was written");
+                }
+                if (!resolved && structure != null) {
+                    throw new StaleSnapshotException("The structure " + this.string(name) + " was submitted after the snapshot was written");
+                }
+                if (structure != null) this.structures.put(name, structure);
+            }
+
+            this.root = buffer.getInt();
+            buffer.getInt();
+            this.nodesStart = buffer.position();
+        }
+
+        private String string(int id) {
+            String string = this.strings[id];
+            if (string == null) {
+                int start = this.stringsStart + this.stringOffsets[id];
+                int length = this.stringOffsets[id + 1] - this.stringOffsets[id];
+                byte[] bytes = new byte[length];
+                this.buffer.duplicate().position(start).get(bytes);
+                string = new String(bytes, StandardCharsets.UTF_8);
+                this.strings[id] = string;
+            }
+            return string;
+        }
+
+        private CompiledSection materialize(int offset) {
+            ByteBuffer node = this.buffer.duplicate();
+            node.position(this.nodesStart + offset);
+
+            int name = node.getInt();
+            String path = this.string(node.getInt());
+
+            ValidationError error = null;
+            byte code = node.get();
+            if (code != -1) {
+                error = new ValidationError(CODES[code], this.string(node.getInt()), this.string(node.getInt()));
+            }
+
+            byte flags = this.version >= 2 ? node.get() : 0;
+            Object folded = (flags & FOLDED) != 0 ? this.readValue(node) : null;
+
+            int size = node.getInt();
+            LinkedHashMap<String, Optional<Object>> values = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++) {
+                String key = this.string(node.getInt());
+                Object value = this.readValue(node);
+                this.lang.registerSlot(value);
+                values.put(key, Optional.ofNullable(value));
+            }
+
+            CompiledSection section = new CompiledSection(this.string(name), path, this.structures.get(name), error, values, (flags & CONSTANT) != 0);
+            return (flags & FOLDED) != 0 ? section.fold(folded) : section;
+        }
+
+        private Object readValue(ByteBuffer node) {
+            byte type = node.get();
+            switch (type) {
+                case NULL: return null;
+                case INT: return node.getInt();
+                case LONG: return node.getLong();
+                case DOUBLE: return node.getDouble();
+                case BOOLEAN: return node.get() != 0;
+                case STRING: return this.string(node.getInt());
+                case SECTION:
+                    int child = node.getInt();
+                    return (CompiledSection.Deferred) () -> this.materialize(child);
+                case LIST:
+                    int size = node.getInt();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(this.readValue(node));
+                    }
+                    return list;
+                default:
+                    throw new IllegalStateException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package dev.refinedtech.configlang;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The required keys of a {@link ConfigStructure}, precomputed when it is constructed.
+ * Keys are given ids that are shared by every structure, so the required keys are kept as bitsets
+ * that a {@link CompactConfigSection} checks against the bitsets of its own keys with a few bitwise operations.
+ * <p>
+ * Only conforming sections are decided by the schema, the error of a section that does not conform
+ * is still found by {@link ConfigStructure#validate(ConfigSection)}.
+ * */
+@SuppressWarnings("unused")
+final class Schema {
+
+    static final long[] EMPTY = new long[0];
+
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final long[] sections;
+    private final long[] leaves;
+    private final int limit;
+    private final String[] childKeys;
+    private final Schema[] children;
+
+    Schema(String name, List<ConfigStructure> required) {
+        this.name = name;
+
+        long[] sections = EMPTY;
+        long[] leaves = EMPTY;
+        int limit = 0;
+        List<String> childKeys = new ArrayList<>();
+        List<Schema> children = new ArrayList<>();
+        for (ConfigStructure structure : required) {
+            int id = id(structure.key());
+            limit = Math.max(limit, id + 1);
+
+            boolean nested = !structure.children().isEmpty();
+            if (nested || structure.childrenRequired()) {
+                sections = set(sections, id);
+            } else {
+                leaves = set(leaves, id);
+            }
+
+            if (nested) {
+                childKeys.add(structure.key());
+                children.add(structure.schema());
+            }
+        }
+
+        this.sections = sections;
+        this.leaves = leaves;
+        this.limit = limit;
+        this.childKeys = childKeys.toArray(new String[0]);
+        this.children = children.toArray(new Schema[0]);
+    }
+
+    /**
+     * @return the id of the key, assigning it one if it has none yet
+     * */
+    static int id(String key) {
+        Integer id = IDS.get(key);
+        if (id != null) return id;
+
+        synchronized (IDS) {
+            return IDS.computeIfAbsent(key, k -> IDS.size());
+        }
+    }
+
+    /**
+     * @return the id of the key, or -1 if no structure requires the key
+     * */
+    static int find(String key) {
+        Integer id = IDS.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the number of ids given out so far, ids given out later are greater than or equal to it
+     * */
+    static int count() {
+        return IDS.size();
+    }
+
+    /**
+     * @return the bitset with the bit of the id set, grown if needed
+     * */
+    static long[] set(long[] bits, int id) {
+        int word = id >>> 6;
+        if (word >= bits.length) bits = Arrays.copyOf(bits, word + 1);
+        bits[word] |= 1L << id;
+        return bits;
+    }
+
+    /**
+     * @return whether every bit of the required bitset is set in the bits
+     * */
+    static boolean covers(long[] bits, long[] required) {
+        for (int i = 0; i < required.length; i++) {
+            long word = i < bits.length ? bits[i] : 0;
+            if ((required[i] & ~word) != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the section and its sections have every key this schema requires,
+     * false if they do not or if that can not be decided from their bitsets
+     * */
+    boolean conforms(CompactConfigSection section) {
+        // Depth first on the work stack of the thread, with the value of a frame being the index of the next child schema
+        WorkStack stack = WorkStack.current();
+        int base = stack.size();
+        try {
+            if (!this.matches(section)) return false;
+            stack.push(this, section, 0);
+            while (stack.size() > base) {
+                Schema schema = (Schema) stack.first();
+                CompactConfigSection current = (CompactConfigSection) stack.second();
+                int index = stack.value();
+                if (index == schema.children.length) {
+                    stack.pop();
+                    continue;
+                }
+                stack.value(index + 1);
+
+                // Is a section, as the key is in the sections bitset that was checked
+                CompactConfigSection child = (CompactConfigSection) current.getObject(schema.childKeys[index], null);
+                Schema childSchema = schema.children[index];
+                if (!childSchema.matches(child)) return false;
+                stack.push(childSchema, child, 0);
+            }
+            return true;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    private boolean matches(CompactConfigSection section) {
+        return section.getName().equalsIgnoreCase(this.name)
+                && this.limit <= section.keyIds()
+                && covers(section.sectionBits(), this.sections)
+                && covers(section.keyBits(), this.leaves);
+    }
+}
@@ -0,0 +1,67 @@
+package dev.refinedtech.configlang;
+
+/**
+ * ValidationError describes why a ConfigSection does not match a ConfigStructure.
+ * The message is only formatted when it is requested, so probing sections that may not match is cheap.
+ * */
+@SuppressWarnings("unused")
+public final class ValidationError {
+
+    private final Code code;
+    private final String path;
+    private final String key;
+    private volatile String message;
+
+    public ValidationError(Code code, String path, String key) {
+        this.code = code;
+        this.path = path;
+        this.key = key;
+    }
+
+    public Code code() {
+        return code;
+    }
+
+    /**
+     * @return the path of the section that failed to validate
+     * */
+    public String path() {
+        return path;
+    }
+
+    /**
+     * @return the key of the structure or required child that was not matched
+     * */
+    public String key() {
+        return key;
+    }
+
+    public String message() {
+        String message = this.message;
+        if (message == null) {
+            message = String.format(this.code.format, this.path, this.key);
+            this.message = message;
+        }
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return this.message();
+    }
+
+    public enum Code {
+        NAME_MISMATCH("The configuration %s is not of the same name as %s"),
+        NOT_A_SECTION("The key %s.%s should be a configuration section, however it is not a configuration section!"),
+        MISSING_SECTION("The key %s.%s should be a configuration section, however it does not exist!"),
+        MISSING_CHILDREN("The key %s.%s required child elements but none found!"),
+        UNAVAILABLE_SECTION("Could not fetch configuration %s.%s"),
+        MISSING_KEY("The configuration %s does not contain the required key %s");
+
+        private final String format;
+
+        Code(String format) {
+            this.format = format;
+        }
+    }
+}
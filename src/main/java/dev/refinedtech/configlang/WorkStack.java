@@ -0,0 +1,95 @@
+package dev.refinedtech.configlang;
+
+import java.util.Arrays;
+
+/**
+ * A per-thread stack of frames for traversing section trees without recursion,
+ * so the depth of a tree is only limited by the heap instead of the thread stack.
+ * <p>
+ * Every frame holds two objects and an int, whose meaning is up to the traversal.
+ * Traversals may nest, for example when a structure executes sections while its own section is being executed,
+ * so a traversal only works on the frames above the {@link #size()} it started at,
+ * and {@link #truncate(int) truncates} the stack back to it when it is done.
+ * */
+@SuppressWarnings("unused")
+final class WorkStack {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * Stacks that grew larger than this for a deep tree are shrunk again once they are empty.
+     * */
+    private static final int RETAINED_CAPACITY = 4096;
+
+    private static final ThreadLocal<WorkStack> STACKS = ThreadLocal.withInitial(WorkStack::new);
+
+    private Object[] first = new Object[INITIAL_CAPACITY];
+    private Object[] second = new Object[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private WorkStack() {
+    }
+
+    /**
+     * @return the stack of the current thread
+     * */
+    static WorkStack current() {
+        return STACKS.get();
+    }
+
+    int size() {
+        return size;
+    }
+
+    void push(Object first, Object second, int value) {
+        if (this.size == this.values.length) this.grow();
+
+        this.first[this.size] = first;
+        this.second[this.size] = second;
+        this.values[this.size] = value;
+        this.size++;
+    }
+
+    Object first() {
+        return this.first[this.size - 1];
+    }
+
+    Object second() {
+        return this.second[this.size - 1];
+    }
+
+    int value() {
+        return this.values[this.size - 1];
+    }
+
+    void value(int value) {
+        this.values[this.size - 1] = value;
+    }
+
+    void pop() {
+        this.size--;
+        this.first[this.size] = null;
+        this.second[this.size] = null;
+    }
+
+    /**
+     * Pops every frame above the size, also those left behind by a traversal that failed.
+     * */
+    void truncate(int size) {
+        while (this.size > size) this.pop();
+
+        if (size == 0 && this.values.length > RETAINED_CAPACITY) {
+            this.first = new Object[INITIAL_CAPACITY];
+            this.second = new Object[INITIAL_CAPACITY];
+            this.values = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    private void grow() {
+        int capacity = this.values.length * 2;
+        this.first = Arrays.copyOf(this.first, capacity);
+        this.second = Arrays.copyOf(this.second, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+    }
+}
@@ -0,0 +1,499 @@
+package dev.refinedtech.configlang.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming parser for the config format, a subset of YAML that also accepts JSON documents.
+ * <p>
+ * It supports block mappings, block lists of scalars, flow mappings ({@code {a: 1}}), flow lists ({@code [1, 2]}),
+ * plain, single- and double-quoted scalars and {@code #} comments.
+ * Not a number and the infinities are read from the YAML tokens {@code .nan}, {@code .inf} and {@code -.inf}.
+ * Input is decoded from the channel through fixed size buffers, and sections are built directly while parsing,
+ * so the memory used besides the resulting tree does not depend on the size of the input.
+ * Nested mappings and lists are parsed on explicit stacks, so their depth is not limited by the thread stack.
+ * */
+final class ConfigParser {
+
+    private static final int EOF = -1;
+    private static final int NOT_MEASURED = -2;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder token = new StringBuilder();
+
+    private boolean endOfInput;
+    private boolean flushed;
+    private int line = 1;
+    private int column = 1;
+    private int indent = NOT_MEASURED;
+
+    ConfigParser(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.chars.flip();
+    }
+
+    void parse(FileConfigSection root) throws IOException {
+        if (peek() == '\uFEFF') read();
+
+        int indent = lineIndent();
+        if (indent == EOF) return;
+
+        if (peek() == '{') {
+            beginLine();
+            read();
+            parseFlow(root);
+            endLine();
+        } else {
+            parseBlockMapping(root, indent);
+        }
+
+        if (lineIndent() != EOF) throw error("Unexpected content after the end of the document");
+    }
+
+    /**
+     * Parses the block mapping and the block mappings nested in it, on a stack of the mappings being parsed.
+     * */
+    private void parseBlockMapping(FileConfigSection root, int rootIndent) throws IOException {
+        // The innermost mapping is the last one
+        List<FileConfigSection> sections = new ArrayList<>();
+        List<Integer> indents = new ArrayList<>();
+        sections.add(root);
+        indents.add(rootIndent);
+
+        while (!sections.isEmpty()) {
+            int last = sections.size() - 1;
+            FileConfigSection section = sections.get(last);
+            int indent = indents.get(last);
+
+            int current = lineIndent();
+            if (current < indent) {
+                sections.remove(last);
+                indents.remove(last);
+                continue;
+            }
+            if (current > indent) throw error("Unexpected indentation");
+            if (peek() == '-') throw error("Expected a key but found a list item");
+
+            beginLine();
+            String key = readKey(false);
+            skipSpaces();
+            int c = peek();
+            if (c != EOF && c != '\n' && c != '\r' && c != '#') {
+                section.put(key, parseInlineValue(section, key));
+                continue;
+            }
+
+            endLine();
+            int next = lineIndent();
+            if (next >= indent && peek() == '-') {
+                section.put(key, parseBlockList(next));
+            } else if (next > indent) {
+                FileConfigSection child = section.child(key);
+                section.put(key, child);
+                sections.add(child);
+                indents.add(next);
+            } else {
+                section.put(key, null);
+            }
+        }
+    }
+
+    /**
+     * Parses the value on the line of its key.
+     * */
+    private Object parseInlineValue(FileConfigSection parent, String key) throws IOException {
+        Object value;
+        int c = peek();
+        if (c == '{') {
+            read();
+            FileConfigSection child = parent.child(key);
+            parseFlow(child);
+            value = child;
+        } else if (c == '[') {
+            read();
+            List<Object> list = new ArrayList<>();
+            parseFlow(list);
+            value = list;
+        } else {
+            value = parseScalar(false);
+        }
+        endLine();
+        return value;
+    }
+
+    private List<Object> parseBlockList(int indent) throws IOException {
+        List<Object> list = new ArrayList<>();
+        while (lineIndent() == indent && peek() == '-') {
+            beginLine();
+            read();
+
+            int c = peek();
+            if (c != ' ' && c != '\n' && c != '\r' && c != EOF) throw error("Expected a space after '-'");
+            skipSpaces();
+
+            c = peek();
+            if (c == '{') throw error("Mappings can not be used as list items");
+            if (c == '[') {
+                read();
+                List<Object> items = new ArrayList<>();
+                parseFlow(items);
+                list.add(items);
+            } else if (c == EOF || c == '\n' || c == '\r' || c == '#') {
+                list.add(null);
+            } else {
+                list.add(parseScalar(false));
+            }
+            endLine();
+        }
+        return list;
+    }
+
+    /**
+     * Parses a flow mapping into a section or a flow list into a list, after its opening bracket was read,
+     * along with the flow mappings and lists nested in it, on a stack of the mappings and lists being parsed.
+     * */
+    private void parseFlow(Object root) throws IOException {
+        // The innermost mapping or list is the last one
+        List<Object> containers = new ArrayList<>();
+        containers.add(root);
+
+        while (true) {
+            // An element, or the end of the innermost mapping or list, which may follow a trailing comma
+            Object container = containers.get(containers.size() - 1);
+            skipFlowSpaces();
+            boolean closed = peek() == closing(container);
+            if (closed) {
+                read();
+            } else {
+                Object opened = parseFlowElement(container);
+                if (opened != null) {
+                    containers.add(opened);
+                    continue;
+                }
+            }
+
+            // The separator after an element, or after the end of a mapping or list
+            while (true) {
+                if (closed) {
+                    containers.remove(containers.size() - 1);
+                    if (containers.isEmpty()) return;
+                    container = containers.get(containers.size() - 1);
+                }
+
+                skipFlowSpaces();
+                int c = read();
+                if (c == closing(container)) {
+                    closed = true;
+                    continue;
+                }
+                if (c != ',') throw error("Expected ',' or '" + closing(container) + "'");
+                break;
+            }
+        }
+    }
+
+    private static char closing(Object container) {
+        return container instanceof List ? ']' : '}';
+    }
+
+    /**
+     * Parses an element of the flow mapping or list and adds it to it.
+     *
+     * @return the mapping or list opened by the element, which is parsed next, or null if the element is a scalar
+     * */
+    @SuppressWarnings("unchecked")
+    private Object parseFlowElement(Object container) throws IOException {
+        FileConfigSection section = container instanceof FileConfigSection ? (FileConfigSection) container : null;
+        String key = null;
+        if (section != null) {
+            key = readKey(true);
+            skipFlowSpaces();
+        }
+
+        Object value;
+        Object opened = null;
+        int c = peek();
+        if (c == '{') {
+            if (section == null) throw error("Mappings can not be used as list items");
+            read();
+            value = opened = section.child(key);
+        } else if (c == '[') {
+            read();
+            value = opened = new ArrayList<>();
+        } else {
+            value = parseScalar(true);
+        }
+
+        if (section != null) {
+            section.put(key, value);
+        } else {
+            ((List<Object>) container).add(value);
+        }
+        return opened;
+    }
+
+    private String readKey(boolean flow) throws IOException {
+        if (flow) skipFlowSpaces();
+
+        String key;
+        int c = peek();
+        if (c == '"' || c == '\'') {
+            key = readQuoted();
+            skipSpaces();
+            if (flow) skipFlowSpaces();
+            if (read() != ':') throw error("Expected ':' after the key");
+        } else {
+            token.setLength(0);
+            while (true) {
+                c = read();
+                if (c == ':') break;
+                if (c == EOF || c == '\n' || c == '\r' || (flow && (c == ',' || c == '}' || c == ']')))
+                    throw error("Expected ':' after the key");
+                token.append((char) c);
+            }
+            key = token.toString().trim();
+        }
+
+        if (key.isEmpty()) throw error("Keys can not be empty");
+        return key;
+    }
+
+    private Object parseScalar(boolean flow) throws IOException {
+        int c = peek();
+        if (c == '"' || c == '\'') return readQuoted();
+
+        token.setLength(0);
+        while (true) {
+            c = peek();
+            if (c == EOF || c == '\n' || c == '\r') break;
+            if (flow && (c == ',' || c == ']' || c == '}')) break;
+            if (c == '#' && (token.length() == 0 || token.charAt(token.length() - 1) == ' ')) break;
+            token.append((char) read());
+        }
+        return scalar(token.toString().trim());
+    }
+
+    static Object scalar(String value) {
+        switch (value) {
+            case "":
+            case "~":
+            case "null":
+            case "Null":
+            case "NULL":
+                return null;
+            case "true":
+            case "True":
+            case "TRUE":
+                return true;
+            case "false":
+            case "False":
+            case "FALSE":
+                return false;
+            case ".nan":
+            case ".NaN":
+            case ".NAN":
+                return Double.NaN;
+            case ".inf":
+            case ".Inf":
+            case ".INF":
+            case "+.inf":
+            case "+.Inf":
+            case "+.INF":
+                return Double.POSITIVE_INFINITY;
+            case "-.inf":
+            case "-.Inf":
+            case "-.INF":
+                return Double.NEGATIVE_INFINITY;
+        }
+
+        char first = value.charAt(0);
+        char last = value.charAt(value.length() - 1);
+        if ((first < '0' || first > '9') && first != '-' && first != '+' && first != '.') return value;
+        if ((last < '0' || last > '9') && last != '.') return value;
+
+        try {
+            long number = Long.parseLong(value);
+            if (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) return (int) number;
+            return number;
+        } catch (NumberFormatException ignored) {
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private String readQuoted() throws IOException {
+        int quote = read();
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == EOF || c == '\n' || c == '\r') throw error("Unterminated string");
+
+            if (c == quote) {
+                if (quote == '\'' && peek() == '\'') {
+                    token.append((char) read());
+                    continue;
+                }
+                return token.toString();
+            }
+
+            if (c == '\\' && quote == '"') {
+                c = read();
+                switch (c) {
+                    case 'n': token.append('\n'); break;
+                    case 't': token.append('\t'); break;
+                    case 'r': token.append('\r'); break;
+                    case 'b': token.append('\b'); break;
+                    case 'f': token.append('\f'); break;
+                    case '0': token.append('\0'); break;
+                    case '"':
+                    case '\\':
+                    case '/': token.append((char) c); break;
+                    case 'u': token.append(readUnicode()); break;
+                    default: throw error("Unknown escape sequence");
+                }
+                continue;
+            }
+
+            token.append((char) c);
+        }
+    }
+
+    private char readUnicode() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit == -1) throw error("Invalid unicode escape");
+            value = value * 16 + digit;
+        }
+        return (char) value;
+    }
+
+    /**
+     * Skips blank lines and comments, then measures the indentation of the next line with content.
+     *
+     * @return the indentation, or {@link #EOF} if there are no more lines
+     * */
+    private int lineIndent() throws IOException {
+        if (indent != NOT_MEASURED) return indent;
+
+        while (true) {
+            int spaces = 0;
+            int c;
+            while ((c = peek()) == ' ') {
+                read();
+                spaces++;
+            }
+
+            if (c == EOF) return indent = EOF;
+            if (c == '\t') throw error("Tabs can not be used for indentation");
+            if (c == '#' || c == '\n' || c == '\r') {
+                skipLine();
+                continue;
+            }
+
+            return indent = spaces;
+        }
+    }
+
+    private void beginLine() {
+        this.indent = NOT_MEASURED;
+    }
+
+    private void endLine() throws IOException {
+        skipSpaces();
+        int c = peek();
+        if (c == '#') {
+            skipLine();
+            return;
+        }
+        if (c == '\r') read();
+        c = read();
+        if (c != '\n' && c != EOF) throw error("Unexpected character '" + (char) c + "'");
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != '\n' && c != EOF);
+    }
+
+    private void skipSpaces() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t') read();
+    }
+
+    private void skipFlowSpaces() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                read();
+            } else if (c == '#') {
+                skipLine();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (!chars.hasRemaining() && !fill()) return EOF;
+        return chars.get(chars.position());
+    }
+
+    private int read() throws IOException {
+        if (!chars.hasRemaining() && !fill()) return EOF;
+        char c = chars.get();
+        if (c == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        if (flushed) return false;
+
+        chars.clear();
+        while (chars.position() == 0 && !flushed) {
+            if (!endOfInput && channel.read(bytes) == -1) endOfInput = true;
+
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            boolean drained = !bytes.hasRemaining();
+            bytes.compact();
+            if (result.isError()) result.throwException();
+
+            if (endOfInput && drained && result.isUnderflow()) {
+                decoder.flush(chars);
+                flushed = true;
+            }
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+
+    private IOException error(String message) {
+        return new IOException(String.format("%s at line %d, column %d", message, line, column));
+    }
+}
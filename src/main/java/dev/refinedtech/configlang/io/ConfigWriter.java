@@ -0,0 +1,175 @@
+package dev.refinedtech.configlang.io;
+
+import dev.refinedtech.configlang.ConfigSection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Writes any ConfigSection in the config format read by {@link FileConfigSection}.
+ * The output is encoded through a single fixed size buffer straight into the channel.
+ * */
+@SuppressWarnings("unused")
+public final class ConfigWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer writer;
+
+    private ConfigWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public static void write(ConfigSection section, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(section, channel);
+        }
+    }
+
+    /**
+     * Writes the section to the channel, the channel is not closed.
+     * */
+    public static void write(ConfigSection section, WritableByteChannel channel) throws IOException {
+        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE);
+        new ConfigWriter(writer).writeSection(section);
+        writer.flush();
+    }
+
+    private void writeSection(ConfigSection root) throws IOException {
+        // The sections being written and the iterators over their keys, the depth of a section is its index
+        List<ConfigSection> sections = new ArrayList<>();
+        List<Iterator<String>> keys = new ArrayList<>();
+        sections.add(root);
+        keys.add(root.getKeys(false).iterator());
+
+        while (!sections.isEmpty()) {
+            int depth = sections.size() - 1;
+            ConfigSection section = sections.get(depth);
+            Iterator<String> iterator = keys.get(depth);
+            if (!iterator.hasNext()) {
+                sections.remove(depth);
+                keys.remove(depth);
+                continue;
+            }
+
+            String key = iterator.next();
+            indent(depth);
+            writeString(key, true);
+            writer.write(':');
+
+            Optional<ConfigSection> sub = section.getConfigSection(key);
+            if (sub.isPresent()) {
+                if (sub.get().getKeys(false).isEmpty()) {
+                    writer.write(" {}\n");
+                } else {
+                    writer.write('\n');
+                    sections.add(sub.get());
+                    keys.add(sub.get().getKeys(false).iterator());
+                }
+                continue;
+            }
+
+            writer.write(' ');
+            writeValue(section.getObject(key, null), false);
+            writer.write('\n');
+        }
+    }
+
+    private void writeValue(Object value, boolean inList) throws IOException {
+        if (value == null) {
+            writer.write("null");
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.write(number(((Number) value).doubleValue(), value));
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writer.write(value.toString());
+        } else if (value instanceof Collection) {
+            writer.write('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) writer.write(", ");
+                writeValue(item, true);
+                first = false;
+            }
+            writer.write(']');
+        } else {
+            writeString(String.valueOf(value), inList);
+        }
+    }
+
+    /**
+     * @return the value as written, using the YAML tokens for the values that have no decimal representation
+     * */
+    private static String number(double value, Object boxed) {
+        if (Double.isNaN(value)) return ".nan";
+        if (value == Double.POSITIVE_INFINITY) return ".inf";
+        if (value == Double.NEGATIVE_INFINITY) return "-.inf";
+        return boxed.toString();
+    }
+
+    private void writeString(String value, boolean flow) throws IOException {
+        if (!needsQuotes(value, flow)) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': writer.write("\\\""); break;
+                case '\\': writer.write("\\\\"); break;
+                case '\n': writer.write("\\n"); break;
+                case '\r': writer.write("\\r"); break;
+                case '\t': writer.write("\\t"); break;
+                default:
+                    if (c < ' ') {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static boolean needsQuotes(String value, boolean flow) {
+        if (value.isEmpty() || ConfigParser.scalar(value) != value) return true;
+        if (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ') return true;
+
+        switch (value.charAt(0)) {
+            case '"':
+            case '\'':
+            case '{':
+            case '[':
+            case '-':
+            case '#':
+                return true;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < ' ' || c == ':' && flow) return true;
+            if (c == '#' && value.charAt(i - 1) == ' ') return true;
+            if (flow && (c == ',' || c == '[' || c == ']' || c == '{' || c == '}')) return true;
+        }
+        return false;
+    }
+
+    private void indent(int depth) throws IOException {
+        for (int i = 0; i < depth; i++) {
+            writer.write("  ");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package dev.refinedtech.configlang.io;
+
+import dev.refinedtech.configlang.ConfigSection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A ConfigSection that can be loaded from and saved to files in the config format,
+ * a subset of YAML that also accepts JSON documents. Keys keep the order they were loaded or set in.
+ * <p>
+ * Files are read with a streaming parser over a {@link FileChannel}, building sections without an intermediate document,
+ * and written through a single buffer, see {@link ConfigWriter}.
+ * */
+@SuppressWarnings("unused")
+public class FileConfigSection extends ConfigSection {
+
+    private final String path;
+    private final String name;
+    private final LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty root section.
+     * */
+    public FileConfigSection() {
+        this("", "");
+    }
+
+    public FileConfigSection(String path, String name) {
+        this.path = path;
+        this.name = name;
+    }
+
+    public static FileConfigSection read(Path path) throws IOException {
+        FileConfigSection section = new FileConfigSection();
+        section.load(path.toFile());
+        return section;
+    }
+
+    /**
+     * Creates an empty section that can be set as the value of the given key of this section.
+     * */
+    public FileConfigSection child(String key) {
+        return new FileConfigSection(this.path.isEmpty() ? key : this.path + "." + key, key);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getPath() {
+        return this.path;
+    }
+
+    @Override
+    public boolean isConfigSection(String key) {
+        return this.values.get(key) instanceof ConfigSection;
+    }
+
+    @Override
+    public Optional<ConfigSection> getConfigSection(String key) {
+        Object obj = this.values.get(key);
+
+        if (obj instanceof ConfigSection) return Optional.of((ConfigSection) obj);
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Set<String> getKeys(boolean deep) {
+        return deep ? deepKeys(this) : this.values.keySet();
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return this.values.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> get(String key) {
+        try {
+            return Optional.ofNullable((T) this.values.get(key));
+        } catch (ClassCastException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public <T> T get(String key, T def) {
+        return this.<T>get(key).orElse(def);
+    }
+
+    @Override
+    public Optional<Object> getObject(String key) {
+        return Optional.ofNullable(this.values.get(key));
+    }
+
+    @Override
+    public Object getObject(String key, Object def) {
+        Object value = this.values.get(key);
+        return value == null ? def : value;
+    }
+
+    @Override
+    public void set(String key, Object value) {
+        this.values.put(key, value);
+        this.modified();
+    }
+
+    /**
+     * Sets the value without marking this section as modified, for the parser while it fills a section that is not in use yet.
+     * */
+    void put(String key, Object value) {
+        this.values.put(key, value);
+    }
+
+    @Override
+    protected boolean tracksModifications() {
+        return true;
+    }
+
+    @Override
+    public void save(File file) throws IOException {
+        ConfigWriter.write(this, file.toPath());
+    }
+
+    /**
+     * Replaces the contents of this section with the contents of the file.
+     * If the file can not be parsed, this section is left unchanged.
+     * */
+    @Override
+    public void load(File file) throws IOException {
+        FileConfigSection loaded = new FileConfigSection(this.path, this.name);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new ConfigParser(channel).parse(loaded);
+        }
+
+        this.values.clear();
+        this.values.putAll(loaded.values);
+        this.modified();
+    }
+}
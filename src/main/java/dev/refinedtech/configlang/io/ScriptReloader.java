@@ -0,0 +1,166 @@
+package dev.refinedtech.configlang.io;
+
+import dev.refinedtech.configlang.CompiledProgram;
+import dev.refinedtech.configlang.ConfigLang;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * ScriptReloader keeps the scripts of a directory compiled, and recompiles them when their files change.
+ * <p>
+ * Every {@code .yml}, {@code .yaml} and {@code .json} file of the directory is loaded as a {@link FileConfigSection}
+ * and compiled with the lang. When a file changes, only its changed sections are validated and compiled again,
+ * see {@link ConfigLang#recompile(CompiledProgram, dev.refinedtech.configlang.ConfigSection, Consumer)},
+ * and the new program replaces the old one atomically. Executions that already fetched the old program keep running it.
+ * If a changed file can not be read, the error is reported and the previous program stays in place.
+ * */
+@SuppressWarnings("unused")
+public class ScriptReloader implements Closeable {
+
+    private final ConfigLang lang;
+    private final Path directory;
+    private final Consumer<String> error;
+    private final Map<String, CompiledProgram> programs = new ConcurrentHashMap<>();
+    private final WatchService watchService;
+    private volatile Thread thread;
+
+    /**
+     * Loads and compiles every script of the directory.
+     *
+     * @param error receives validation errors and files that could not be read
+     * */
+    public ScriptReloader(ConfigLang lang, Path directory, Consumer<String> error) throws IOException {
+        this.lang = lang;
+        this.directory = directory;
+        this.error = error;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(this.watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                this.reload(file);
+            }
+        }
+    }
+
+    /**
+     * Starts watching the directory on a daemon thread.
+     * */
+    public synchronized void start() {
+        if (this.thread != null) return;
+
+        Thread thread = new Thread(this::watch, "ConfigLang ScriptReloader " + this.directory);
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * @param name the file name of the script, for example {@code rewards.yml}
+     * @return the current version of the script
+     * */
+    public Optional<CompiledProgram> program(String name) {
+        return Optional.ofNullable(this.programs.get(name));
+    }
+
+    public Map<String, CompiledProgram> programs() {
+        return Collections.unmodifiableMap(this.programs);
+    }
+
+    /**
+     * Reloads a script of the directory now, instead of waiting for the watcher to notice the change.
+     * */
+    public void reload(Path file) {
+        String name = file.getFileName().toString();
+        if (!isScript(name)) return;
+
+        Path path = this.directory.resolve(name);
+        if (!Files.isRegularFile(path)) {
+            this.programs.remove(name);
+            return;
+        }
+
+        FileConfigSection section;
+        try {
+            section = FileConfigSection.read(path);
+        } catch (IOException e) {
+            if (this.error != null) this.error.accept(String.format("Could not reload %s: %s", path, e.getMessage()));
+            return;
+        }
+
+        // Compiled outside the map, a concurrent reload of the same file makes this one compile again on top of it
+        while (true) {
+            CompiledProgram previous = this.programs.get(name);
+            CompiledProgram program = this.lang.recompile(previous, section, this.error);
+            if (previous == null ? this.programs.putIfAbsent(name, program) == null : this.programs.replace(name, previous, program))
+                return;
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        this.reloadAll();
+                    } else {
+                        this.reloadReported((Path) event.context());
+                    }
+                }
+                if (!key.reset()) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private void reloadAll() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                this.reloadReported(file);
+            }
+        } catch (IOException e) {
+            if (this.error != null) this.error.accept(String.format("Could not reload %s: %s", this.directory, e.getMessage()));
+        }
+        this.programs.keySet().removeIf(name -> !Files.isRegularFile(this.directory.resolve(name)));
+    }
+
+    /**
+     * Reloads the file, reporting instead of throwing if its script fails to compile, so the watcher keeps running.
+     * */
+    private void reloadReported(Path file) {
+        try {
+            this.reload(file);
+        } catch (RuntimeException e) {
+            if (this.error != null) this.error.accept(String.format("Could not reload %s: %s", this.directory.resolve(file.getFileName()), e));
+        }
+    }
+
+    private static boolean isScript(String name) {
+        return name.endsWith(".yml") || name.endsWith(".yaml") || name.endsWith(".json");
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+    }
+}
@@ -0,0 +1,143 @@
+package dev.refinedtech.configlang.metrics;
+
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.ValidationError;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation that counts executions, validation failures and execution latencies per structure key.
+ * <p>
+ * All counters are {@link LongAdder}s, so threads executing concurrently do not contend on them.
+ * Latencies are recorded in a histogram with power of two buckets, bucket {@code i} counting executions
+ * that took between {@code 2^i} and {@code 2^(i+1)} nanoseconds.
+ * */
+@SuppressWarnings("unused")
+public class ExecutionMetrics implements Instrumentation {
+
+    private final Map<String, StructureMetrics> structures = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterExecute(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        StructureMetrics metrics = this.metrics(structure.key());
+        metrics.executions.increment();
+        if (error != null) metrics.failures.increment();
+        metrics.totalNanos.add(nanos);
+        metrics.histogram[bucket(nanos)].increment();
+    }
+
+    @Override
+    public void afterMatches(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        StructureMetrics metrics = this.metrics(structure.key());
+        metrics.validations.increment();
+        if (error != null) metrics.validationFailures.increment();
+    }
+
+    private StructureMetrics metrics(String key) {
+        StructureMetrics metrics = this.structures.get(key);
+        if (metrics != null) return metrics;
+        return this.structures.computeIfAbsent(key, k -> new StructureMetrics());
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * @return the metrics of the structure, if it was executed or validated since the last reset
+     * */
+    public StructureMetrics get(String key) {
+        return this.structures.get(key);
+    }
+
+    /**
+     * @return a live view of the metrics of every structure that was executed or validated since the last reset
+     * */
+    public Map<String, StructureMetrics> structures() {
+        return Collections.unmodifiableMap(this.structures);
+    }
+
+    public void reset() {
+        this.structures.clear();
+    }
+
+    public static final class StructureMetrics {
+
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder validations = new LongAdder();
+        private final LongAdder validationFailures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder[] histogram = new LongAdder[64];
+
+        private StructureMetrics() {
+            for (int i = 0; i < this.histogram.length; i++) {
+                this.histogram[i] = new LongAdder();
+            }
+        }
+
+        public long executions() {
+            return this.executions.sum();
+        }
+
+        /**
+         * @return the executions of sections that did not match the structure
+         * */
+        public long failures() {
+            return this.failures.sum();
+        }
+
+        public long validations() {
+            return this.validations.sum();
+        }
+
+        public long validationFailures() {
+            return this.validationFailures.sum();
+        }
+
+        public long totalNanos() {
+            return this.totalNanos.sum();
+        }
+
+        /**
+         * @return the execution counts of the latency buckets, see {@link ExecutionMetrics}
+         * */
+        public long[] histogram() {
+            long[] histogram = new long[this.histogram.length];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = this.histogram[i].sum();
+            }
+            return histogram;
+        }
+
+        /**
+         * @param percentile between 0 and 1
+         * @return an upper bound of the latency of the given percentile of executions, in nanoseconds
+         * */
+        public long percentile(double percentile) {
+            long[] histogram = this.histogram();
+            long total = 0;
+            for (long count : histogram) total += count;
+            if (total == 0) return 0;
+
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && histogram[i] > 0) return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("executions=%d, failures=%d, validations=%d, validationFailures=%d, p50=%dns, p99=%dns",
+                    this.executions(), this.failures(), this.validations(), this.validationFailures(),
+                    this.percentile(0.5), this.percentile(0.99));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package dev.refinedtech.configlang.metrics;
+
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.ValidationError;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Instrumentation that emits JDK Flight Recorder events for executions and validations,
+ * so scripts can be profiled with JFR and JDK Mission Control.
+ * <p>
+ * The events are {@code dev.refinedtech.configlang.Execute} and {@code dev.refinedtech.configlang.Matches}.
+ * No event is created while a recording does not enable them.
+ * */
+@SuppressWarnings("unused")
+public class FlightRecorderInstrumentation implements Instrumentation {
+
+    @Override
+    public Object beforeExecute(ConfigStructure structure, ConfigSection section) {
+        if (!ExecuteEvent.TYPE.isEnabled()) return null;
+
+        ExecuteEvent event = new ExecuteEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void afterExecute(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        if (context == null) return;
+
+        ExecuteEvent event = (ExecuteEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.structure = structure.key();
+            event.path = section.getPath();
+            event.valid = error == null;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beforeMatches(ConfigStructure structure, ConfigSection section) {
+        if (!MatchesEvent.TYPE.isEnabled()) return null;
+
+        MatchesEvent event = new MatchesEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void afterMatches(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        if (context == null) return;
+
+        MatchesEvent event = (MatchesEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.structure = structure.key();
+            event.path = section.getPath();
+            event.error = error == null ? null : error.message();
+            event.commit();
+        }
+    }
+
+    @Name("dev.refinedtech.configlang.Execute")
+    @Label("Execute")
+    @Category("ConfigLang")
+    @Description("Execution of a section with a structure, including its nested sections")
+    static final class ExecuteEvent extends Event {
+
+        /**
+         * Used to check whether the event is enabled without creating one.
+         * */
+        private static final ExecuteEvent TYPE = new ExecuteEvent();
+
+        @Label("Structure")
+        String structure;
+
+        @Label("Path")
+        String path;
+
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("dev.refinedtech.configlang.Matches")
+    @Label("Matches")
+    @Category("ConfigLang")
+    @Description("Validation of a section against a structure")
+    static final class MatchesEvent extends Event {
+
+        private static final MatchesEvent TYPE = new MatchesEvent();
+
+        @Label("Structure")
+        String structure;
+
+        @Label("Path")
+        String path;
+
+        @Label("Error")
+        String error;
+    }
+}
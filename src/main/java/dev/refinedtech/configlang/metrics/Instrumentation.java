@@ -0,0 +1,116 @@
+package dev.refinedtech.configlang.metrics;
+
+import dev.refinedtech.configlang.ConfigLang;
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.ValidationError;
+
+/**
+ * Instrumentation is notified by a {@link ConfigLang} around every structure it validates and executes,
+ * see {@link ConfigLang#setInstrumentation(Instrumentation)}.
+ * <p>
+ * Hooks are called on the executing thread, possibly from several threads at once, and must not throw.
+ * The object returned by a before hook is passed back to the matching after hook, so implementations can
+ * carry per-call state without thread locals.
+ * The synchronous hooks begin and end on the same thread, asynchronous executions call the async hooks instead.
+ * */
+@SuppressWarnings("unused")
+public interface Instrumentation {
+
+    /**
+     * Called before a section is executed with a structure.
+     *
+     * @return a context passed to {@link #afterExecute}, may be null
+     * */
+    default Object beforeExecute(ConfigStructure structure, ConfigSection section) {
+        return null;
+    }
+
+    /**
+     * Called after a section was executed with a structure, also if the structure threw.
+     *
+     * @param error the validation error of the section, in which case the structure was not run
+     * @param nanos the time the execution took, including the execution of nested sections
+     * */
+    default void afterExecute(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+    }
+
+    /**
+     * Called instead of {@link #beforeExecute} before a section is executed asynchronously with a structure,
+     * see {@link ConfigLang#executeAsync}. It is called on the thread that starts the execution, which continues
+     * before the execution completes, so implementations that keep per-thread state must not change it here.
+     * By default it calls {@link #beforeExecute}.
+     *
+     * @return a context passed to {@link #afterExecuteAsync}, may be null
+     * */
+    default Object beforeExecuteAsync(ConfigStructure structure, ConfigSection section) {
+        return this.beforeExecute(structure, section);
+    }
+
+    /**
+     * Called instead of {@link #afterExecute} once an asynchronous execution completed, also if it failed.
+     * It is called on the thread that completed the execution, which may not be the one that started it.
+     * By default it calls {@link #afterExecute}.
+     * */
+    default void afterExecuteAsync(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        this.afterExecute(structure, section, context, error, nanos);
+    }
+
+    /**
+     * Called before a section is validated against a structure.
+     *
+     * @return a context passed to {@link #afterMatches}, may be null
+     * */
+    default Object beforeMatches(ConfigStructure structure, ConfigSection section) {
+        return null;
+    }
+
+    default void afterMatches(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+    }
+
+    /**
+     * @return an instrumentation that notifies both instrumentations, first before second
+     * */
+    static Instrumentation combine(Instrumentation first, Instrumentation second) {
+        if (first == null) return second;
+        if (second == null) return first;
+
+        return new Instrumentation() {
+            @Override
+            public Object beforeExecute(ConfigStructure structure, ConfigSection section) {
+                return new Object[]{first.beforeExecute(structure, section), second.beforeExecute(structure, section)};
+            }
+
+            @Override
+            public void afterExecute(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+                Object[] contexts = (Object[]) context;
+                second.afterExecute(structure, section, contexts[1], error, nanos);
+                first.afterExecute(structure, section, contexts[0], error, nanos);
+            }
+
+            @Override
+            public Object beforeExecuteAsync(ConfigStructure structure, ConfigSection section) {
+                return new Object[]{first.beforeExecuteAsync(structure, section), second.beforeExecuteAsync(structure, section)};
+            }
+
+            @Override
+            public void afterExecuteAsync(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+                Object[] contexts = (Object[]) context;
+                second.afterExecuteAsync(structure, section, contexts[1], error, nanos);
+                first.afterExecuteAsync(structure, section, contexts[0], error, nanos);
+            }
+
+            @Override
+            public Object beforeMatches(ConfigStructure structure, ConfigSection section) {
+                return new Object[]{first.beforeMatches(structure, section), second.beforeMatches(structure, section)};
+            }
+
+            @Override
+            public void afterMatches(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+                Object[] contexts = (Object[]) context;
+                second.afterMatches(structure, section, contexts[1], error, nanos);
+                first.afterMatches(structure, section, contexts[0], error, nanos);
+            }
+        };
+    }
+}
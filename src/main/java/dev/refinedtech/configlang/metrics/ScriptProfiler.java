@@ -0,0 +1,223 @@
+package dev.refinedtech.configlang.metrics;
+
+import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.ConfigStructure;
+import dev.refinedtech.configlang.ValidationError;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A tracing profiler that attributes execution time and allocations to the paths of the executed sections.
+ * Install it with {@link dev.refinedtech.configlang.ConfigLang#setInstrumentation(Instrumentation)}.
+ * <p>
+ * Inclusive figures cover a section and everything executed while it ran, exclusive figures only the section itself.
+ * Allocations are measured per thread where the JVM supports it, and are zero otherwise.
+ * Sections executed on another thread, for example by a parallel execution, start a stack of their own.
+ * Asynchronous executions are profiled under the stack of the section that started them, without being subtracted
+ * from its exclusive figures as they may outlive it, and without allocations as they are not bound to one thread.
+ * The stacks can be exported in the collapsed format that flame graph tools read, see {@link #writeCollapsed(Appendable, Weight)}.
+ * */
+@SuppressWarnings("unused")
+public class ScriptProfiler implements Instrumentation {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final ThreadLocal<Frame> current = new ThreadLocal<>();
+    private final Map<String, PathProfile> paths = new ConcurrentHashMap<>();
+    private final Map<String, PathProfile> stacks = new ConcurrentHashMap<>();
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported()) return null;
+        if (!sunThreads.isThreadAllocatedMemoryEnabled()) sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String name(ConfigSection section) {
+        String name = section.getPath().isEmpty() ? section.getName() : section.getPath();
+        return name.indexOf(';') == -1 ? name : name.replace(';', ':');
+    }
+
+    @Override
+    public Object beforeExecute(ConfigStructure structure, ConfigSection section) {
+        Frame parent = this.current.get();
+        String name = name(section);
+
+        Frame frame = new Frame(parent, name, parent == null ? name : parent.stack + ";" + name, allocatedBytes());
+        this.current.set(frame);
+        return frame;
+    }
+
+    @Override
+    public void afterExecute(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        Frame frame = (Frame) context;
+        long bytes = allocatedBytes() - frame.startBytes;
+        this.current.set(frame.parent);
+
+        if (frame.parent != null) {
+            frame.parent.childNanos += nanos;
+            frame.parent.childBytes += bytes;
+        }
+
+        this.record(frame, nanos, bytes);
+    }
+
+    /**
+     * Names the frame after the stack of the current thread, but leaves the stack alone, as the thread continues
+     * before the execution completes.
+     * */
+    @Override
+    public Object beforeExecuteAsync(ConfigStructure structure, ConfigSection section) {
+        Frame caller = this.current.get();
+        String name = name(section);
+        return new Frame(null, name, caller == null ? name : caller.stack + ";" + name, 0);
+    }
+
+    @Override
+    public void afterExecuteAsync(ConfigStructure structure, ConfigSection section, Object context, ValidationError error, long nanos) {
+        this.record((Frame) context, nanos, 0);
+    }
+
+    private void record(Frame frame, long nanos, long bytes) {
+        long exclusiveNanos = nanos - frame.childNanos;
+        long exclusiveBytes = bytes - frame.childBytes;
+        this.paths.computeIfAbsent(frame.name, PathProfile::new).record(nanos, exclusiveNanos, bytes, exclusiveBytes);
+        this.stacks.computeIfAbsent(frame.stack, PathProfile::new).record(nanos, exclusiveNanos, bytes, exclusiveBytes);
+    }
+
+    /**
+     * @return a live view of the profiles of every executed path
+     * */
+    public Map<String, PathProfile> paths() {
+        return Collections.unmodifiableMap(this.paths);
+    }
+
+    /**
+     * @return the profiles of the executed paths, the ones with the most exclusive time first
+     * */
+    public List<PathProfile> hotPaths(int limit) {
+        List<PathProfile> profiles = new ArrayList<>(this.paths.values());
+        profiles.sort(Comparator.comparingLong(PathProfile::exclusiveNanos).reversed());
+        return profiles.size() > limit ? profiles.subList(0, limit) : profiles;
+    }
+
+    /**
+     * Writes one line per executed stack, the paths of the stack separated by semicolons followed by the
+     * exclusive time in nanoseconds or allocated bytes of its top section, as read by {@code flamegraph.pl} and compatible tools.
+     * */
+    public void writeCollapsed(Appendable out, Weight weight) throws IOException {
+        for (PathProfile stack : this.stacks.values()) {
+            long value = weight == Weight.ALLOCATIONS ? stack.exclusiveBytes() : stack.exclusiveNanos();
+            if (value <= 0) continue;
+            out.append(stack.path()).append(' ').append(Long.toString(value)).append('\n');
+        }
+    }
+
+    public String collapsed(Weight weight) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            this.writeCollapsed(builder, weight);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    public void reset() {
+        this.paths.clear();
+        this.stacks.clear();
+    }
+
+    public enum Weight {
+        TIME,
+        ALLOCATIONS
+    }
+
+    private static final class Frame {
+
+        private final Frame parent;
+        private final String name;
+        private final String stack;
+        private final long startBytes;
+        private long childNanos;
+        private long childBytes;
+
+        private Frame(Frame parent, String name, String stack, long startBytes) {
+            this.parent = parent;
+            this.name = name;
+            this.stack = stack;
+            this.startBytes = startBytes;
+        }
+    }
+
+    /**
+     * The figures of a path, or of a stack of paths when exported with {@link #writeCollapsed(Appendable, Weight)}.
+     * A section that executes a section with its own path counts towards the inclusive figures of the path twice.
+     * */
+    public static final class PathProfile {
+
+        private final String path;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder inclusiveNanos = new LongAdder();
+        private final LongAdder exclusiveNanos = new LongAdder();
+        private final LongAdder inclusiveBytes = new LongAdder();
+        private final LongAdder exclusiveBytes = new LongAdder();
+
+        private PathProfile(String path) {
+            this.path = path;
+        }
+
+        private void record(long inclusiveNanos, long exclusiveNanos, long inclusiveBytes, long exclusiveBytes) {
+            this.executions.increment();
+            this.inclusiveNanos.add(inclusiveNanos);
+            this.exclusiveNanos.add(exclusiveNanos);
+            this.inclusiveBytes.add(inclusiveBytes);
+            this.exclusiveBytes.add(exclusiveBytes);
+        }
+
+        public String path() {
+            return this.path;
+        }
+
+        public long executions() {
+            return this.executions.sum();
+        }
+
+        public long inclusiveNanos() {
+            return this.inclusiveNanos.sum();
+        }
+
+        public long exclusiveNanos() {
+            return this.exclusiveNanos.sum();
+        }
+
+        public long inclusiveBytes() {
+            return this.inclusiveBytes.sum();
+        }
+
+        public long exclusiveBytes() {
+            return this.exclusiveBytes.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: executions=%d, inclusive=%dns, exclusive=%dns, allocated=%dB, exclusiveAllocated=%dB",
+                    this.path, this.executions(), this.inclusiveNanos(), this.exclusiveNanos(), this.inclusiveBytes(), this.exclusiveBytes());
+        }
+    }
+}
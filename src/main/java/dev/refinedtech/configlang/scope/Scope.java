@@ -1,17 +1,46 @@
 package dev.refinedtech.configlang.scope;
 
+import dev.refinedtech.configlang.Budget;
 import dev.refinedtech.configlang.ConfigLang;
 import dev.refinedtech.configlang.ConfigSection;
+import dev.refinedtech.configlang.variables.SlotLayout;
+import dev.refinedtech.configlang.variables.VariableReads;
 import dev.refinedtech.configlang.variables.VariableStorage;
 
+/**
+ * A Scope is not thread-safe, it should only be used by one thread at a time.
+ * It can however be shared as the parent of {@link #childScope(String) child scopes} used by other threads,
+ * as long as it is not modified while they are in use.
+ * */
 public class Scope {
 
-    private final VariableStorage variables = new VariableStorage();
+    private final VariableStorage variables;
 
     private final String name;
 
+    private final Budget budget;
+
     public Scope(String name) {
+        this(name, (SlotLayout) null);
+    }
+
+    /**
+     * Creates a root scope that keeps the variables of the layout in slots, see {@link ConfigLang#newScope(String)}.
+     * */
+    public Scope(String name, SlotLayout layout) {
+        this(name, new VariableStorage(layout), null);
+    }
+
+    private Scope(String name, VariableStorage variables, Budget budget) {
+        this.name = name;
+        this.variables = variables;
+        this.budget = budget;
+    }
+
+    private Scope(String name, Scope parent, VariableReads reads, Budget budget) {
         this.name = name;
+        this.variables = new VariableStorage(parent.variables, reads);
+        this.budget = budget;
     }
 
     public String name() {
@@ -22,8 +51,44 @@ public class Scope {
         return variables;
     }
 
+    /**
+     * @return the budget executions in this scope are limited by, or null if they are not limited
+     * */
+    public Budget budget() {
+        return budget;
+    }
+
+    /**
+     * Creates a scope that sees the variables of this scope, including later changes to them.
+     * Variables set in the child scope shadow the ones of this scope without modifying them.
+     * This is O(1) regardless of how many variables this scope holds.
+     * */
     public Scope childScope(String name) {
-        Scope scope = new Scope(name);
+        return new Scope(name, this, null, this.budget);
+    }
+
+    /**
+     * Creates a {@link #childScope(String) child scope} that records the names of the variables read through it,
+     * including the reads of its own child scopes.
+     * */
+    public Scope trackedScope(String name, VariableReads reads) {
+        return new Scope(name, this, reads, this.budget);
+    }
+
+    /**
+     * Creates a {@link #childScope(String) child scope} whose executions are limited by the budget,
+     * as are the executions of its own child scopes.
+     * */
+    public Scope budgetedScope(String name, Budget budget) {
+        return new Scope(name, this, null, budget);
+    }
+
+    /**
+     * Creates a scope holding a copy of the variables of this scope, later changes to either scope are not shared.
+     * The copy is copy-on-write, so this is O(1) for scopes that are not child scopes.
+     * */
+    public Scope isolatedScope(String name) {
+        Scope scope = new Scope(name, new VariableStorage(this.variables.layout()), this.budget);
         scope.variables().copy(this.variables());
         return scope;
     }
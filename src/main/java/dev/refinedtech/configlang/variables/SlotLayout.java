@@ -0,0 +1,52 @@
+package dev.refinedtech.configlang.variables;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SlotLayout assigns the variable names known ahead of time to indexes into the frames of {@link VariableStorage}s.
+ * <p>
+ * Storages created with a layout keep the variables that have a slot in an array, so they can be read and written
+ * through their {@link VariableSlot} without hashing the name. Variables without a slot are kept by name.
+ * Slots can be added at any time, lookups never lock.
+ * */
+@SuppressWarnings("unused")
+public final class SlotLayout {
+
+    private volatile Map<String, VariableSlot> slots = Collections.emptyMap();
+
+    /**
+     * @return the slot of the variable, assigning the next free index to it if it does not have one yet
+     * */
+    public VariableSlot slot(String name) {
+        VariableSlot slot = this.slots.get(name);
+        if (slot != null) return slot;
+
+        synchronized (this) {
+            slot = this.slots.get(name);
+            if (slot == null) {
+                Map<String, VariableSlot> slots = new HashMap<>(this.slots);
+                slot = new VariableSlot(this, name, slots.size());
+                slots.put(name, slot);
+                this.slots = Collections.unmodifiableMap(slots);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * @return the slot of the variable, or null if it does not have one
+     * */
+    public VariableSlot find(String name) {
+        return this.slots.get(name);
+    }
+
+    public int size() {
+        return this.slots.size();
+    }
+
+    Map<String, VariableSlot> slots() {
+        return this.slots;
+    }
+}
@@ -0,0 +1,169 @@
+package dev.refinedtech.configlang.variables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A parsed variable accessor, such as {@code player's stats's health} or {@code $player}.
+ * Accessors are parsed once and cached, see {@link #compile(String)}.
+ * Fields are resolved once per class and field name into method handles,
+ * so evaluating an accessor does no string parsing and no reflection lookups.
+ * The variable is looked up through its slot in storages whose layout has one, see {@link SlotLayout}.
+ * */
+@SuppressWarnings("unused")
+public final class VariableAccessor {
+
+    private static final int CACHE_LIMIT = 4096;
+    private static final ConcurrentHashMap<String, VariableAccessor> CACHE = new ConcurrentHashMap<>();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<ConcurrentHashMap<String, Optional<MethodHandle>>> GETTERS = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<String, Optional<MethodHandle>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final String accessor;
+    private final String variable;
+    private final FieldAccessor[] fields;
+    private volatile VariableSlot slot;
+
+    private VariableAccessor(String accessor, String variable, FieldAccessor... fields) {
+        this.accessor = accessor;
+        this.variable = variable;
+        this.fields = fields;
+    }
+
+    /**
+     * Parses the accessor, or returns the cached accessor if it has been parsed before.
+     * */
+    public static VariableAccessor compile(String accessor) {
+        VariableAccessor cached = CACHE.get(accessor);
+        if (cached != null) return cached;
+
+        VariableAccessor parsed = parse(accessor);
+        if (CACHE.size() >= CACHE_LIMIT) CACHE.clear();
+        cached = CACHE.putIfAbsent(accessor, parsed);
+        return cached == null ? parsed : cached;
+    }
+
+    private static VariableAccessor parse(String accessor) {
+        if (accessor.isEmpty())
+            return new VariableAccessor(accessor, null);
+
+        if (accessor.startsWith("$")) {
+            String name = accessor.substring(1);
+            int index = name.indexOf(' ');
+            if (index == -1)
+                index = name.length();
+            return new VariableAccessor(accessor, name.substring(0, index));
+        }
+
+        String[] accessors = Arrays.stream(accessor.split("'s")).map(String::trim).toArray(String[]::new);
+        FieldAccessor[] fields = new FieldAccessor[accessors.length - 1];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new FieldAccessor(accessors[i + 1]);
+        }
+        return new VariableAccessor(accessor, accessors[0], fields);
+    }
+
+    /**
+     * @return the name of the variable this accessor starts at, or null for the empty accessor
+     * */
+    public String variable() {
+        return variable;
+    }
+
+    public Optional<Object> get(VariableStorage storage) {
+        if (this.variable == null) return Optional.empty();
+
+        Optional<Object> root;
+        SlotLayout layout = storage.layout();
+        VariableSlot slot = this.slot;
+        if (slot != null && slot.layout() == layout) {
+            root = storage.getRaw(slot);
+        } else if (layout != null && (slot = layout.find(this.variable)) != null) {
+            this.slot = slot;
+            root = storage.getRaw(slot);
+        } else {
+            root = storage.getRaw(this.variable);
+        }
+        if (this.fields.length == 0 || root.isEmpty()) return root;
+
+        Object value = root.get();
+        for (FieldAccessor field : this.fields) {
+            value = field.get(value);
+            if (value == null) return Optional.empty();
+        }
+        return Optional.of(value);
+    }
+
+    @Override
+    public String toString() {
+        return accessor;
+    }
+
+    private static Optional<MethodHandle> resolve(Class<?> type, String name) {
+        try {
+            Field field = type.getField(name);
+            field.trySetAccessible();
+            MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+            }
+            return Optional.of(getter.asType(GETTER_TYPE));
+        } catch (NoSuchFieldException | IllegalAccessException | SecurityException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A single {@code 's field} step of an accessor, remembering the getter of the last class it was used on.
+     * */
+    private static final class FieldAccessor {
+
+        private final String name;
+        private volatile ResolvedField last;
+
+        private FieldAccessor(String name) {
+            this.name = name;
+        }
+
+        private Object get(Object obj) {
+            Class<?> type = obj.getClass();
+            ResolvedField last = this.last;
+            if (last == null || last.type != type) {
+                last = new ResolvedField(type, GETTERS.get(type).computeIfAbsent(this.name, name -> resolve(type, name)).orElse(null));
+                this.last = last;
+            }
+
+            if (last.getter == null) return null;
+
+            try {
+                return (Object) last.getter.invokeExact(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class ResolvedField {
+
+        private final Class<?> type;
+        private final MethodHandle getter;
+
+        private ResolvedField(Class<?> type, MethodHandle getter) {
+            this.type = type;
+            this.getter = getter;
+        }
+    }
+}
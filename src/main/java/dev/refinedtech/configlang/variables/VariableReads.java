@@ -0,0 +1,43 @@
+package dev.refinedtech.configlang.variables;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * VariableReads records the names of the variables read through a tracked storage,
+ * see {@link dev.refinedtech.configlang.scope.Scope#trackedScope(String, VariableReads)}.
+ * Reads may be recorded from several threads at once, for example by sections that are executed in parallel.
+ * */
+@SuppressWarnings("unused")
+public final class VariableReads {
+
+    private final Set<String> names = new LinkedHashSet<>();
+    private volatile boolean all;
+
+    void read(String name) {
+        synchronized (this.names) {
+            this.names.add(name);
+        }
+    }
+
+    void readAll() {
+        this.all = true;
+    }
+
+    /**
+     * @return a copy of the names of the variables that were read so far, in the order they were first read
+     * */
+    public Set<String> names() {
+        synchronized (this.names) {
+            return Collections.unmodifiableSet(new LinkedHashSet<>(this.names));
+        }
+    }
+
+    /**
+     * @return whether all variables were read at once, for example by copying the storage, in which case {@link #names()} is incomplete
+     * */
+    public boolean readAllVariables() {
+        return this.all;
+    }
+}
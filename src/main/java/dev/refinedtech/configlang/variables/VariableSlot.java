@@ -0,0 +1,36 @@
+package dev.refinedtech.configlang.variables;
+
+/**
+ * The index of a variable in the frames of the storages of a {@link SlotLayout}.
+ * A slot can be used with any storage, storages of another layout look the variable up by name.
+ * */
+@SuppressWarnings("unused")
+public final class VariableSlot {
+
+    private final SlotLayout layout;
+    private final String name;
+    private final int index;
+
+    VariableSlot(SlotLayout layout, String name, int index) {
+        this.layout = layout;
+        this.name = name;
+        this.index = index;
+    }
+
+    public SlotLayout layout() {
+        return layout;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name + "#" + index;
+    }
+}
@@ -1,17 +1,179 @@
 package dev.refinedtech.configlang.variables;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * VariableStorage holds the variables of a scope.
+ * A storage may have a parent, in which case variables that are not set locally are looked up in the parent chain.
+ * Writes always go to the local storage, shadowing the parent's variable of the same name.
+ * The local variables are copy-on-write, so {@link #copy(VariableStorage)} of a storage without a parent is O(1).
+ * <p>
+ * A storage created with a {@link SlotLayout} keeps the variables that have a slot in an array frame,
+ * which {@link VariableSlot}s index directly. Child storages share the layout of their parent.
+ * Accessing such a variable by name resolves its slot first, so both ways of accessing it see the same variable.
+ * Numbers and booleans set through {@link #setDouble(VariableSlot, double)} and its siblings are kept unboxed in the frame,
+ * and the primitive getters read them without allocating.
+ * */
 public class VariableStorage {
 
-    private final HashMap<String, Object> variables = new HashMap<>();
+    /**
+     * Marks a variable that was removed locally while its parent still has it.
+     * */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * Stands for a null value in a frame, where null marks an empty slot.
+     * */
+    private static final Object NULL = new Object();
+
+    /**
+     * Mark slots whose value is kept unboxed in the bits of the frame.
+     * */
+    private static final Object DOUBLE = new Object();
+    private static final Object LONG = new Object();
+    private static final Object BOOLEAN = new Object();
+
+    private static final Object[] EMPTY_FRAME = new Object[0];
+    private static final int MIN_CAPACITY = 4;
+    private static final long[] EMPTY_BITS = new long[0];
+
+    private final VariableStorage parent;
+    private final VariableReads reads;
+    private final SlotLayout layout;
+    private Object[] frame = EMPTY_FRAME;
+    private long[] bits = EMPTY_BITS;
+    private Map<String, Object> variables = Collections.emptyMap();
+    private boolean shared = true;
+
+    public VariableStorage() {
+        this((VariableStorage) null);
+    }
+
+    public VariableStorage(VariableStorage parent) {
+        this(parent, null);
+    }
+
+    /**
+     * Creates a storage that records the names of the variables looked up through it in the given reads,
+     * including the lookups of storages that have it as an ancestor.
+     * */
+    public VariableStorage(VariableStorage parent, VariableReads reads) {
+        this(parent, reads, parent == null ? null : parent.layout);
+    }
+
+    /**
+     * Creates a storage that keeps the variables of the layout in a frame.
+     * */
+    public VariableStorage(SlotLayout layout) {
+        this(null, null, layout);
+    }
+
+    private VariableStorage(VariableStorage parent, VariableReads reads, SlotLayout layout) {
+        this.parent = parent;
+        this.reads = reads;
+        this.layout = layout;
+    }
+
+    /**
+     * @return the layout of the frame of this storage, or null if it keeps all variables by name
+     * */
+    public SlotLayout layout() {
+        return layout;
+    }
 
     public void set(String key, Object value) {
-        this.variables.put(key, value);
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) {
+            this.set(slot, value);
+            return;
+        }
+        this.writable().put(key, value);
+    }
+
+    public void set(VariableSlot slot, Object value) {
+        if (slot.layout() != this.layout) {
+            this.writable().put(slot.name(), value);
+            return;
+        }
+
+        this.frame(slot.index())[slot.index()] = value == null ? NULL : value;
+        this.clearNamed(slot);
+    }
+
+    /**
+     * Sets the variable, unboxed if it has a slot in the layout of this storage.
+     * */
+    public void setDouble(String key, double value) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) {
+            this.setDouble(slot, value);
+            return;
+        }
+        this.writable().put(key, value);
+    }
+
+    public void setLong(String key, long value) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) {
+            this.setLong(slot, value);
+            return;
+        }
+        this.writable().put(key, value);
+    }
+
+    public void setBoolean(String key, boolean value) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) {
+            this.setBoolean(slot, value);
+            return;
+        }
+        this.writable().put(key, value);
+    }
+
+    public void setDouble(VariableSlot slot, double value) {
+        if (slot.layout() != this.layout) {
+            this.writable().put(slot.name(), value);
+            return;
+        }
+
+        this.frame(slot.index())[slot.index()] = DOUBLE;
+        this.bits(slot.index())[slot.index()] = Double.doubleToRawLongBits(value);
+        this.clearNamed(slot);
+    }
+
+    public void setLong(VariableSlot slot, long value) {
+        if (slot.layout() != this.layout) {
+            this.writable().put(slot.name(), value);
+            return;
+        }
+
+        this.frame(slot.index())[slot.index()] = LONG;
+        this.bits(slot.index())[slot.index()] = value;
+        this.clearNamed(slot);
+    }
+
+    public void setBoolean(VariableSlot slot, boolean value) {
+        if (slot.layout() != this.layout) {
+            this.writable().put(slot.name(), value);
+            return;
+        }
+
+        this.frame(slot.index())[slot.index()] = BOOLEAN;
+        this.bits(slot.index())[slot.index()] = value ? 1 : 0;
+        this.clearNamed(slot);
+    }
+
+    /**
+     * Removes the variable of the slot from the named variables, where it may have been set before it had a slot.
+     * */
+    private void clearNamed(VariableSlot slot) {
+        if (!this.variables.isEmpty() && this.variables.containsKey(slot.name())) this.writable().remove(slot.name());
     }
 
     public <T> Optional<T> get(String key) {
@@ -26,15 +188,180 @@ public class VariableStorage {
     }
 
     public Optional<Object> getRaw(String key) {
-        return Optional.ofNullable(this.variables.get(key));
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.getRaw(slot);
+
+        for (VariableStorage storage = this; storage != null; storage = storage.parent) {
+            if (storage.reads != null) storage.reads.read(key);
+            Object value = storage.variables.get(key);
+            if (value == REMOVED) return Optional.empty();
+            if (value != null || storage.variables.containsKey(key)) return Optional.ofNullable(value);
+        }
+        return Optional.empty();
+    }
+
+    public Optional<Object> getRaw(VariableSlot slot) {
+        if (slot.layout() != this.layout) return this.getRaw(slot.name());
+
+        VariableStorage holder = this.holder(slot);
+        if (holder == null) return Optional.empty();
+
+        Object value = holder.boxed(slot);
+        return value == REMOVED ? Optional.empty() : Optional.ofNullable(value);
+    }
+
+    /**
+     * @return the variable as a double, or the default if it is not set or not a number
+     * */
+    public double getDouble(String key, double def) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.getDouble(slot, def);
+
+        Object value = this.getRaw(key).orElse(null);
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
+    }
+
+    public double getDouble(VariableSlot slot, double def) {
+        if (slot.layout() != this.layout) return this.getDouble(slot.name(), def);
+
+        VariableStorage holder = this.holder(slot);
+        if (holder == null) return def;
+
+        Object value = holder.slotValue(slot);
+        if (value == DOUBLE) return Double.longBitsToDouble(holder.bits[slot.index()]);
+        if (value == LONG) return holder.bits[slot.index()];
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
+    }
+
+    /**
+     * @return the variable as a long, or the default if it is not set or not a number
+     * */
+    public long getLong(String key, long def) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.getLong(slot, def);
+
+        Object value = this.getRaw(key).orElse(null);
+        return value instanceof Number ? ((Number) value).longValue() : def;
+    }
+
+    public long getLong(VariableSlot slot, long def) {
+        if (slot.layout() != this.layout) return this.getLong(slot.name(), def);
+
+        VariableStorage holder = this.holder(slot);
+        if (holder == null) return def;
+
+        Object value = holder.slotValue(slot);
+        if (value == LONG) return holder.bits[slot.index()];
+        if (value == DOUBLE) return (long) Double.longBitsToDouble(holder.bits[slot.index()]);
+        return value instanceof Number ? ((Number) value).longValue() : def;
+    }
+
+    /**
+     * @return the variable as a boolean, or the default if it is not set or not a boolean
+     * */
+    public boolean getBoolean(String key, boolean def) {
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.getBoolean(slot, def);
+
+        Object value = this.getRaw(key).orElse(null);
+        return value instanceof Boolean ? (Boolean) value : def;
+    }
+
+    public boolean getBoolean(VariableSlot slot, boolean def) {
+        if (slot.layout() != this.layout) return this.getBoolean(slot.name(), def);
+
+        VariableStorage holder = this.holder(slot);
+        if (holder == null) return def;
+
+        Object value = holder.slotValue(slot);
+        if (value == BOOLEAN) return holder.bits[slot.index()] != 0;
+        return value instanceof Boolean ? (Boolean) value : def;
+    }
+
+    /**
+     * @return the closest storage of the chain that sets or removes the variable of the slot, or null if none does
+     * */
+    private VariableStorage holder(VariableSlot slot) {
+        int index = slot.index();
+        for (VariableStorage storage = this; storage != null; storage = storage.parent) {
+            if (storage.reads != null) storage.reads.read(slot.name());
+            if (index < storage.frame.length && storage.frame[index] != null) return storage;
+            // Set by name before the variable had a slot
+            if (!storage.variables.isEmpty() && storage.variables.containsKey(slot.name())) return storage;
+        }
+        return null;
+    }
+
+    /**
+     * @return the raw value of the slot in this storage, which may be a marker
+     * */
+    private Object slotValue(VariableSlot slot) {
+        int index = slot.index();
+        if (index < this.frame.length && this.frame[index] != null) return this.frame[index];
+
+        Object value = this.variables.get(slot.name());
+        return value == null ? NULL : value;
+    }
+
+    /**
+     * @return the value of the slot in this storage, boxing unboxed values, or {@link #REMOVED}
+     * */
+    private Object boxed(VariableSlot slot) {
+        Object value = this.slotValue(slot);
+        if (value == NULL) return null;
+        if (value == DOUBLE) return Double.longBitsToDouble(this.bits[slot.index()]);
+        if (value == LONG) return this.bits[slot.index()];
+        if (value == BOOLEAN) return this.bits[slot.index()] != 0;
+        return value;
     }
 
     public boolean exists(String key) {
-        return this.variables.containsKey(key);
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.exists(slot);
+
+        for (VariableStorage storage = this; storage != null; storage = storage.parent) {
+            if (storage.reads != null) storage.reads.read(key);
+            Object value = storage.variables.get(key);
+            if (value == REMOVED) return false;
+            if (value != null || storage.variables.containsKey(key)) return true;
+        }
+        return false;
     }
 
+    public boolean exists(VariableSlot slot) {
+        if (slot.layout() != this.layout) return this.exists(slot.name());
+
+        VariableStorage holder = this.holder(slot);
+        return holder != null && holder.slotValue(slot) != REMOVED;
+    }
+
+    /**
+     * Removes a variable from this storage, the parent's variable stays hidden from this storage.
+     * */
     public Optional<Object> remove(String key) {
-        return Optional.ofNullable(this.variables.remove(key));
+        VariableSlot slot = this.slotOf(key);
+        if (slot != null) return this.remove(slot);
+
+        Optional<Object> old = this.getRaw(key);
+        if (this.parent != null && this.parent.exists(key)) {
+            this.writable().put(key, REMOVED);
+        } else if (this.variables.containsKey(key)) {
+            this.writable().remove(key);
+        }
+        return old;
+    }
+
+    public Optional<Object> remove(VariableSlot slot) {
+        if (slot.layout() != this.layout) return this.remove(slot.name());
+
+        Optional<Object> old = this.getRaw(slot);
+        if (this.variables.containsKey(slot.name())) this.writable().remove(slot.name());
+        if (this.parent != null && this.parent.exists(slot)) {
+            this.frame(slot.index())[slot.index()] = REMOVED;
+        } else if (slot.index() < this.frame.length) {
+            this.frame[slot.index()] = null;
+        }
+        return old;
     }
 
     public <T> Optional<T> parseVariable(String variableAccessor) {
@@ -48,51 +375,112 @@ public class VariableStorage {
     }
 
     public Optional<Object> parseVariableRaw(String variableAccessor) {
-        if (variableAccessor.isEmpty())
-            return Optional.empty();
+        return VariableAccessor.compile(variableAccessor).get(this);
+    }
 
-        if (variableAccessor.startsWith("$")) {
-            String accessor = variableAccessor.substring(1);
-            int index = accessor.indexOf(' ');
-            if (index == -1)
-                index = accessor.length();
-            return this.getRaw(accessor.substring(0, index));
+    /**
+     * Copies all variables visible from the other storage into this one.
+     * */
+    public void copy(VariableStorage other) {
+        if (this.parent == null && other.parent == null && this.layout == other.layout
+                && this.variables.isEmpty() && this.frame.length == 0) {
+            this.variables = other.variables;
+            this.shared = true;
+            other.shared = true;
+            this.frame = other.frame.length == 0 ? EMPTY_FRAME : other.frame.clone();
+            this.bits = other.bits.length == 0 ? EMPTY_BITS : other.bits.clone();
+            return;
         }
 
-        String[] accessors = Arrays.stream(variableAccessor.split("'s")).map(String::trim).toArray(String[]::new);
-        if (accessors.length == 1)
-            return this.get(accessors[0]);
+        Map<String, Object> variables = new HashMap<>();
+        other.collect(variables);
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            this.set(entry.getKey(), entry.getValue());
+        }
+    }
 
-        try {
-            String[] sub = new String[accessors.length - 1];
-            System.arraycopy(accessors, 1, sub, 0, sub.length);
-            return Optional.ofNullable(this.getFromAccessors(this.getRaw(accessors[0]).orElseThrow(), sub));
-        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException | NoSuchElementException e) {
-            return Optional.empty();
+    /**
+     * Puts the variables of the storage and its parents into the target, the closest storage overriding the others.
+     * */
+    private void collect(Map<String, Object> target) {
+        List<VariableStorage> storages = new ArrayList<>();
+        for (VariableStorage storage = this; storage != null; storage = storage.parent) {
+            if (storage.reads != null) storage.reads.readAll();
+            storages.add(storage);
+        }
+        for (int i = storages.size() - 1; i >= 0; i--) {
+            storages.get(i).putInto(target);
         }
     }
 
-    public void copy(VariableStorage other) {
-        this.variables.putAll(other.variables);
+    private void putInto(Map<String, Object> target) {
+        for (Map.Entry<String, Object> entry : this.variables.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                target.remove(entry.getKey());
+            } else {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (this.frame.length == 0) return;
+        for (VariableSlot slot : this.layout.slots().values()) {
+            if (slot.index() >= this.frame.length || this.frame[slot.index()] == null) continue;
+
+            Object value = this.boxed(slot);
+            if (value == REMOVED) {
+                target.remove(slot.name());
+            } else {
+                target.put(slot.name(), value);
+            }
+        }
+    }
+
+    private VariableSlot slotOf(String key) {
+        return this.layout == null ? null : this.layout.find(key);
+    }
+
+    /**
+     * @return the frame of this storage, grown to hold the given index
+     * */
+    private Object[] frame(int index) {
+        if (index >= this.frame.length) {
+            this.frame = Arrays.copyOf(this.frame, this.capacity(index, this.frame.length));
+        }
+        return this.frame;
+    }
+
+    private long[] bits(int index) {
+        if (index >= this.bits.length) {
+            this.bits = Arrays.copyOf(this.bits, this.capacity(index, this.bits.length));
+        }
+        return this.bits;
     }
 
-    private Object getFromAccessors(Object obj, String... accessors) throws NoSuchFieldException, IllegalAccessException {
-        if (accessors.length == 0) return obj;
-        String[] sub = new String[accessors.length - 1];
-        System.arraycopy(accessors, 1, sub, 0, sub.length);
-        Field field = obj.getClass().getField(accessors[0]);
-        boolean accessible = field.isAccessible();
-        field.setAccessible(true);
-        Object value = field.get(obj);
-        field.setAccessible(accessible);
-        return getFromAccessors(value, sub);
+    /**
+     * Child storages usually set a few variables, so arrays only grow to the index, doubling so that setting
+     * several slots in turn does not copy them every time, but not beyond the slots of the layout.
+     *
+     * @return the length to grow an array of the given length to, so it holds the index
+     * */
+    private int capacity(int index, int length) {
+        return Math.max(index + 1, Math.min(Math.max(length * 2, MIN_CAPACITY), this.layout.size()));
+    }
+
+    private Map<String, Object> writable() {
+        if (this.shared) {
+            this.variables = new HashMap<>(this.variables);
+            this.shared = false;
+        }
+        return this.variables;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("Variables:\n");
-        for (String key : this.variables.keySet()) {
-            sb.append("  ").append(key).append(" = ").append(this.variables.get(key)).append("\n");
+        Map<String, Object> variables = new HashMap<>();
+        this.collect(variables);
+        for (String key : variables.keySet()) {
+            sb.append("  ").append(key).append(" = ").append(variables.get(key)).append("\n");
         }
         return sb.toString();
     }
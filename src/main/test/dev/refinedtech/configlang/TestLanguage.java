@@ -1,18 +1,52 @@
 package dev.refinedtech.configlang;
 
+import dev.refinedtech.configlang.io.FileConfigSection;
+import dev.refinedtech.configlang.metrics.ExecutionMetrics;
+import dev.refinedtech.configlang.metrics.ScriptProfiler;
 import dev.refinedtech.configlang.scope.Scope;
+import dev.refinedtech.configlang.variables.VariableAccessor;
+import dev.refinedtech.configlang.variables.VariableSlot;
+import dev.refinedtech.configlang.variables.VariableStorage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 public class TestLanguage {
 
+    /**
+     * Daemon threads, so a deadlock fails a check instead of keeping the JVM alive.
+     * */
+    private static final ThreadFactory DAEMON = task -> {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    };
+
     public static void main(String[] args) {
         ConfigLang lang = new ConfigLang();
         lang.setErrorLogger(Logger.getGlobal());
@@ -35,6 +69,11 @@ public class TestLanguage {
                 return true;
             }
 
+            @Override
+            public boolean isPure() {
+                return true;
+            }
+
             @Override
             protected Object run(ConfigSection section, Scope scope, Object... args) {
                 Object left = lang.getData(section, "left", scope.childScope("left"), args);
@@ -87,6 +126,19 @@ public class TestLanguage {
                     default: return false;
                 }
             }
+
+            @Override
+            protected double runDouble(ConfigSection section, Scope scope, Object... args) {
+                String operator = String.valueOf(section.getObject("operator", null));
+                switch (operator) {
+                    case "*": return lang.getDouble(section, "left", scope, args) * lang.getDouble(section, "right", scope, args);
+                    case "/": return lang.getDouble(section, "left", scope, args) / lang.getDouble(section, "right", scope, args);
+                    case "%": return lang.getDouble(section, "left", scope, args) % lang.getDouble(section, "right", scope, args);
+                    case "+": return lang.getDouble(section, "left", scope, args) + lang.getDouble(section, "right", scope, args);
+                    case "-": return lang.getDouble(section, "left", scope, args) - lang.getDouble(section, "right", scope, args);
+                    default: return super.runDouble(section, scope, args);
+                }
+            }
         });
 
         lang.submit(new ConfigStructure("condition") {
@@ -96,20 +148,27 @@ public class TestLanguage {
             }
 
             @Override
-            protected Object run(ConfigSection section, Scope scope, Object... args) {
-
-                AtomicBoolean res = new AtomicBoolean(true);
-
-                lang.executeChildren(section, scope.childScope("condition")).forEach(result -> {
-                    if (result instanceof Boolean)
-                        res.set(res.get() && (Boolean) result);
-                });
+            public boolean isPure() {
+                return true;
+            }
 
-                return res.get();
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return lang.streamChildren(section, scope.childScope("condition"))
+                        .allMatch(result -> !(result instanceof Boolean) || (Boolean) result);
             }
         });
 
         lang.submit(new ConfigStructure("if", lang.get("condition").orElseThrow()) {
+            @Override
+            public Collection<String> deadBranches(ConfigSection section, ConfigLang lang) {
+                Optional<Object> res = lang.constant(section.getConfigSection("condition").orElseThrow());
+                if (res.isEmpty()) return Collections.emptySet();
+
+                boolean then = res.get() instanceof Boolean && (Boolean) res.get() && section.isConfigSection("then");
+                return Collections.singleton(then ? "else" : "then");
+            }
+
             @Override
             protected Object run(ConfigSection section, Scope scope, Object... args) {
                 ConfigSection condition = section.getConfigSection("condition").orElseThrow();
@@ -167,6 +226,1144 @@ public class TestLanguage {
         System.out.println(scope.variables().parseVariableRaw("test's num"));
 
         lang.execute(section, scope);
+        System.out.println(lang.executeDouble(operation2, scope));
+
+        CompiledProgram program = lang.compile(section);
+        program.execute(scope);
+
+        checkValidationCache(lang, section);
+        checkErrorSink();
+        checkPrimitives();
+        checkConfigRoundTrip();
+        checkCompactSection();
+        checkSchema();
+        checkSnapshot();
+        checkRecompile();
+        checkSnapshotFolding();
+        checkVariableFolding();
+        checkMemoization();
+        checkBudget();
+        checkParallel();
+        checkAsyncProfiler();
+        checkTiering();
+        checkDeepTree();
+        checkSlots();
+        checkBatchOrder();
+        checkExecutionMetrics();
+        checkStreamChildren();
+        checkConcurrentSubmit();
+        checkAccessors();
+        checkChildScopes();
+        checkCompiledEquivalence();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException("Check failed: " + message);
+    }
+
+    private static void checkPrimitives() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("value", ConfigStructure.keyStructure("value")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return section.getObject("value", null);
+            }
+        });
+
+        FileConfigSection number = new FileConfigSection("number", "value");
+        number.set("value", 7);
+        FileConfigSection flag = new FileConfigSection("flag", "value");
+        flag.set("value", true);
+
+        check(lang.executeDouble(number, new Scope("primitive")) == 7.0, "doubles are unboxed from the result");
+        check(lang.executeLong(number, new Scope("primitive")) == 7, "longs are unboxed from the result");
+        check(lang.executeBoolean(flag, new Scope("primitive")) && !lang.executeBoolean(number, new Scope("primitive")), "booleans are unboxed from the result");
+        check(Double.isNaN(lang.executeDouble(null, new Scope("primitive"))) && lang.executeLong(new FileConfigSection("missing", "value"), new Scope("primitive")) == 0,
+                "sections without a result have the default result");
+        check(lang.getDouble(number, "value", new Scope("primitive")) == 7.0 && lang.getLong(number, "missing", new Scope("primitive")) == 0,
+                "plain values are read without boxing");
+
+        CompiledProgram program = lang.compile(number);
+        check(lang.executeLong(program.section(), new Scope("primitive")) == 7, "compiled sections have the same result");
+
+        Budget budget = new Budget(0, 0, null);
+        lang.executeDouble(number, new Scope("primitive").budgetedScope("primitive", budget));
+        check(budget.invocations() == 1, "primitive dispatches are counted by a budget");
+    }
+
+    private static void checkErrorSink() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("exec", ConfigStructure.keyStructure("message")) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return null;
+            }
+        });
+
+        List<String> logged = new ArrayList<>();
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        FileConfigSection exec = new FileConfigSection("script.exec", "exec");
+        lang.execute(exec, new Scope("sink"));
+        check(logged.isEmpty(), "errors are not reported without a logger");
+
+        lang.setErrorLogger(logger);
+        lang.execute(exec, new Scope("sink"));
+        check(logged.equals(Collections.singletonList(lang.get("exec").orElseThrow().matches(exec))), "validation errors are logged once formatted");
+
+        logger.setLevel(Level.OFF);
+        lang.execute(exec, new Scope("sink"));
+        check(logged.size() == 1, "errors are not logged while the logger is disabled");
+    }
+
+    private static void checkConfigRoundTrip() {
+        FileConfigSection root = new FileConfigSection();
+        root.set("int", 42);
+        root.set("long", 1L << 40);
+        root.set("double", -1.5);
+        root.set("nan", Double.NaN);
+        root.set("infinity", Double.POSITIVE_INFINITY);
+        root.set("negative infinity", Double.NEGATIVE_INFINITY);
+        root.set("true", true);
+        root.set("false", false);
+        root.set("none", null);
+        root.set("escapes", "quote \" backslash \\ newline \n tab \t control \u0001");
+        root.set("looks like data", Arrays.asList("123", "true", ".nan", "", "- item", "a, b", "key: value", "x # comment"));
+
+        FileConfigSection nested = root.child("nested");
+        FileConfigSection deeper = nested.child("deeper");
+        deeper.set("value", "deep");
+        nested.set("deeper", deeper);
+        nested.set("empty", nested.child("empty"));
+        root.set("nested", nested);
+
+        try {
+            File file = File.createTempFile("round-trip", ".yml");
+            file.deleteOnExit();
+            root.save(file);
+
+            FileConfigSection loaded = new FileConfigSection();
+            loaded.load(file);
+            checkSameTree(root, loaded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkSameTree(ConfigSection expected, ConfigSection actual) {
+        check(expected.getKeys(false).equals(actual.getKeys(false)), "same keys at " + expected.getPath());
+        for (String key : expected.getKeys(false)) {
+            if (expected.isConfigSection(key)) {
+                check(actual.isConfigSection(key), key + " is a section");
+                checkSameTree(expected.getConfigSection(key).orElseThrow(), actual.getConfigSection(key).orElseThrow());
+                continue;
+            }
+
+            Object value = expected.getObject(key, null);
+            Object read = actual.getObject(key, null);
+            // Numbers are read back as the narrowest type, so they are compared by value
+            boolean same = value instanceof Number && read instanceof Number
+                    ? Double.compare(((Number) value).doubleValue(), ((Number) read).doubleValue()) == 0
+                    : Objects.equals(value, read);
+            check(same, key + " was " + value + " but is read back as " + read);
+        }
+    }
+
+    private static void checkCompactSection() {
+        FileConfigSection source = new FileConfigSection("root", "root");
+        source.set("int", 7);
+        source.set("long", 1L << 40);
+        source.set("double", 2.5);
+        source.set("boolean", true);
+        source.set("string", "text");
+        // More keys than are searched linearly, so the sorted index is used
+        for (int i = 0; i < 10; i++) source.set("key" + i, i);
+
+        FileConfigSection child = source.child("child");
+        child.set("leaf", "value");
+        source.set("child", child);
+
+        CompactConfigSection compact = CompactConfigSection.of(source);
+        check(CompactConfigSection.of(compact) == compact, "freezing a compact section returns it");
+        check(compact.getKeys(false).equals(source.getKeys(false)), "keys keep their order");
+        check(new ArrayList<>(compact.getKeys(false)).equals(new ArrayList<>(source.getKeys(false))), "keys are iterated in order");
+        check(compact.getKeys(true).equals(source.getKeys(true)), "deep keys match");
+
+        check(compact.getObject("int", null).equals(7), "ints are read back boxed as ints");
+        check(compact.getObject("long", null).equals(1L << 40), "longs are read back boxed as longs");
+        check(compact.getInt("int", 0) == 7 && compact.getLong("long", 0) == 1L << 40, "primitive number getters");
+        check(compact.getDouble("double", 0) == 2.5 && compact.getDouble("int", 0) == 7.0, "double getter widens ints");
+        check(compact.getBoolean("boolean", false) && !compact.getBoolean("string", false), "boolean getter");
+        check(compact.getDouble("missing", -1) == -1 && compact.getDouble("string", -1) == -1, "defaults for missing and non-numbers");
+        check(compact.<String>get("string").orElseThrow().equals("text"), "objects are kept");
+        check(compact.contains("key9") && !compact.contains("key10"), "contains uses the sorted index");
+        check(compact.getInt("key9", -1) == 9, "lookups through the sorted index");
+
+        check(compact.isConfigSection("child") && !compact.isConfigSection("int"), "sections are recognized");
+        ConfigSection compactChild = compact.getConfigSection("child").orElseThrow();
+        check(compactChild.getPath().equals(child.getPath()), "child paths are derived from the parent");
+        check("value".equals(compactChild.getObject("leaf", null)), "child values are kept");
+
+        try {
+            compact.set("int", 8);
+            check(false, "compact sections can not be modified");
+        } catch (UnsupportedOperationException expected) {
+            // Compact sections are immutable
+        }
+    }
+
+    private static void checkSchema() {
+        ConfigStructure order = new ConfigStructure("order",
+                ConfigStructure.keyStructure("customer"),
+                new ConfigStructure("item", ConfigStructure.keyStructure("count"), ConfigStructure.keyStructure("price")) {
+                    @Override
+                    protected Object run(ConfigSection section, Scope scope, Object... args) {
+                        return null;
+                    }
+                }) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return null;
+            }
+        };
+
+        List<FileConfigSection> sections = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            FileConfigSection section = new FileConfigSection("orders.order" + i, i == 5 ? "shipment" : "order");
+            if (i != 1) section.set("customer", "c" + i);
+            if (i == 3) {
+                section.set("item", 1);
+            } else if (i != 2) {
+                FileConfigSection item = section.child("item");
+                item.set("count", 2);
+                if (i != 4) item.set("price", 3.5);
+                section.set("item", item);
+            }
+            if (i == 0) section.set("surcharge", 1);
+            sections.add(section);
+        }
+        List<CompactConfigSection> compacts = new ArrayList<>();
+        for (FileConfigSection section : sections) compacts.add(CompactConfigSection.of(section));
+
+        // Its key is given an id after the sections were frozen, so their bitsets do not cover it
+        ConfigStructure late = new ConfigStructure("order", ConfigStructure.keyStructure("customer"), ConfigStructure.keyStructure("surcharge")) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return null;
+            }
+        };
+
+        for (ConfigStructure structure : Arrays.asList(order, late)) {
+            for (int i = 0; i < sections.size(); i++) {
+                String expected = structure.matches(sections.get(i));
+                CompactConfigSection compact = compacts.get(i);
+                check(!structure.schema().conforms(compact) || expected == null, "the schema only decides conforming sections, " + compact.getPath());
+                check(Objects.equals(structure.matches(compact), expected), "compact validation agrees with full validation, " + compact.getPath());
+            }
+        }
+        check(order.schema().conforms(compacts.get(0)), "a conforming section is decided by the schema");
+        check(!late.schema().conforms(compacts.get(0)) && late.matches(compacts.get(0)) == null,
+                "a structure registered after the section was frozen falls back to full validation");
+        check(late.matches(compacts.get(4)) != null, "full validation still finds the key missing");
+    }
+
+    private static ConfigLang snapshotLanguage(ConfigStructure... required) {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("greet", required) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return "Hello " + section.getObject("message", null);
+            }
+        });
+        return lang;
+    }
+
+    private static void checkSnapshot() {
+        ConfigLang lang = snapshotLanguage(ConfigStructure.keyStructure("message"));
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        FileConfigSection greet = root.child("greet");
+        greet.set("message", "snapshot");
+        greet.set("values", Arrays.asList(1, 1L << 40, 2.5, true, "text", null));
+        greet.set("sender", "$sender");
+        root.set("greet", greet);
+        FileConfigSection invalid = root.child("greet");
+        invalid.set("other", 1);
+        FileConfigSection group = root.child("group");
+        group.set("greet", invalid);
+        root.set("group", group);
+
+        try {
+            File file = File.createTempFile("program", ".snapshot");
+            file.deleteOnExit();
+            CompiledProgram program = lang.compile(root);
+            ProgramSnapshot.write(program, file.toPath());
+
+            ConfigLang fresh = snapshotLanguage(ConfigStructure.keyStructure("message"));
+            CompiledProgram loaded = ProgramSnapshot.load(fresh, file.toPath());
+            checkSameTree(program.section(), loaded.section());
+            check(fresh.slots().find("sender") != null, "the variables of loaded sections are given slots");
+            check(loaded.executeChildren(new Scope("snapshot")).equals(Arrays.asList("Hello snapshot", null)),
+                    "loaded program executes");
+
+            List<String> errors = new ArrayList<>();
+            lang.executeChildrenRecursive(loaded.section().getConfigSection("group").orElseThrow(), errors::add, new Scope("snapshot"));
+            check(errors.size() == 1 && errors.get(0).contains("message"), "validation errors are stored in the snapshot");
+
+            ConfigLang changed = snapshotLanguage(ConfigStructure.keyStructure("message"), ConfigStructure.keyStructure("name"));
+            try {
+                ProgramSnapshot.load(changed, file.toPath());
+                check(false, "loading against a changed structure is refused");
+            } catch (ProgramSnapshot.StaleSnapshotException expected) {
+                // The fingerprint of greet changed
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkSnapshotFolding() {
+        int[] runs = new int[1];
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("sum", ConfigStructure.keyStructure("left"), ConfigStructure.keyStructure("right")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            public boolean isPure() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                runs[0]++;
+                return section.getInt("left", 0) + section.getInt("right", 0);
+            }
+        });
+
+        FileConfigSection sum = new FileConfigSection("sum", "sum");
+        sum.set("left", 2);
+        sum.set("right", 3);
+
+        try {
+            File file = File.createTempFile("folded", ".snapshot");
+            file.deleteOnExit();
+            CompiledProgram program = lang.compile(sum);
+            check(lang.constant(program.section()).equals(Optional.of(5)), "the pure section is folded when compiled");
+            ProgramSnapshot.write(program, file.toPath());
+
+            runs[0] = 0;
+            CompiledProgram loaded = ProgramSnapshot.load(lang, file.toPath());
+            check(lang.constant(loaded.section()).equals(Optional.of(5)), "the folded value is stored in the snapshot");
+            check(Integer.valueOf(5).equals(loaded.execute(new Scope("folded"))) && runs[0] == 0, "the loaded program does not run the folded structure");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkVariableFolding() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("sum", ConfigStructure.keyStructure("left"), ConfigStructure.keyStructure("right")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            public boolean isPure() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return operand(section, "left", scope) + operand(section, "right", scope);
+            }
+
+            private int operand(ConfigSection section, String key, Scope scope) {
+                Object value = section.getObject(key, 0);
+                if (value instanceof String) value = scope.variables().parseVariableRaw((String) value).orElse(0);
+                return ((Number) value).intValue();
+            }
+        });
+
+        FileConfigSection sum = new FileConfigSection("sum", "sum");
+        sum.set("left", "$x");
+        sum.set("right", 1);
+
+        CompiledProgram program = lang.compile(sum);
+        check(lang.constant(program.section()).isEmpty(), "a section that refers to a variable is not folded");
+        Scope scope = lang.newScope("variables");
+        scope.variables().set("x", 2);
+        check(Integer.valueOf(3).equals(program.execute(scope)), "the variable is read when the section is executed");
+        scope.variables().set("x", 5);
+        check(Integer.valueOf(6).equals(program.execute(scope)), "a new value of the variable is read");
+    }
+
+    private static void checkRecompile() {
+        ConfigLang lang = snapshotLanguage(ConfigStructure.keyStructure("message"));
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        FileConfigSection first = root.child("first");
+        FileConfigSection greet = first.child("greet");
+        greet.set("message", "first");
+        first.set("greet", greet);
+        root.set("first", first);
+        FileConfigSection second = root.child("second");
+        FileConfigSection other = second.child("greet");
+        other.set("message", "second");
+        second.set("greet", other);
+        root.set("second", second);
+
+        CompiledProgram program = lang.compile(root);
+        check(lang.recompile(program, root).section() == program.section(), "an unchanged program is reused as a whole");
+
+        other.set("message", "changed");
+        CompiledProgram recompiled = lang.recompile(program, root);
+        ConfigSection before = program.section();
+        ConfigSection after = recompiled.section();
+        check(after != before, "the root of a changed program is compiled again");
+        check(after.getConfigSection("first").orElseThrow() == before.getConfigSection("first").orElseThrow(), "unchanged sections are reused");
+        check(after.getConfigSection("second").orElseThrow() != before.getConfigSection("second").orElseThrow(), "changed sections are compiled again");
+        check("Hello changed".equals(lang.execute(after.getConfigSection("second").orElseThrow().getConfigSection("greet").orElseThrow(), new Scope("recompile"))),
+                "the recompiled section has the new value");
+        check("Hello second".equals(lang.execute(before.getConfigSection("second").orElseThrow().getConfigSection("greet").orElseThrow(), new Scope("recompile"))),
+                "the previous program is left untouched");
+    }
+
+    private static void checkMemoization() {
+        int[] runs = new int[1];
+        Memoization memoization = new Memoization(16, null);
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("salute", ConfigStructure.keyStructure("message")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            public Memoization memoization() {
+                return memoization;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                runs[0]++;
+                Object message = section.getObject("message", "");
+                if (message instanceof ConfigSection) message = ((ConfigSection) message).getObject("text", "");
+                return scope.variables().getRaw("title").orElse("") + " " + message;
+            }
+        });
+
+        FileConfigSection salute = new FileConfigSection("salute", "salute");
+        salute.set("message", "memo");
+        Scope scope = new Scope("memo");
+        scope.variables().set("title", "Dear");
+
+        check("Dear memo".equals(lang.execute(salute, scope)), "the first execution runs the structure");
+        check("Dear memo".equals(lang.execute(salute, scope)) && runs[0] == 1, "the second execution is a memo hit");
+        check(memoization.hits() == 1 && memoization.misses() == 1, "hits and misses are counted");
+
+        scope.variables().set("title", "Hi");
+        check("Hi memo".equals(lang.execute(salute, null, scope, (Object[]) null)) && runs[0] == 2, "changing a variable that was read is a memo miss");
+        check("Hi memo".equals(lang.execute(salute, scope)) && runs[0] == 2, "null args are cached the same as no args");
+        salute.set("message", "changed");
+        check("Hi changed".equals(lang.execute(salute, scope)) && runs[0] == 3, "modifying the section is a memo miss");
+
+        FileConfigSection operand = salute.child("message");
+        operand.set("text", "nested");
+        salute.set("message", operand);
+        check("Hi nested".equals(lang.execute(salute, scope)) && runs[0] == 4, "replacing a value with a section is a memo miss");
+        check("Hi nested".equals(lang.execute(salute, scope)) && runs[0] == 4, "an unchanged nested section is a memo hit");
+        operand.set("text", "edited");
+        check("Hi edited".equals(lang.execute(salute, scope)) && runs[0] == 5, "modifying a nested section is a memo miss");
+    }
+
+    private static void checkBudget() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("nest", false) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                section.getConfigSection("nest").ifPresent(child -> lang.execute(child, scope.childScope("nest")));
+                return null;
+            }
+        });
+
+        FileConfigSection root = new FileConfigSection("nest", "nest");
+        FileConfigSection current = root;
+        for (int i = 0; i < 4; i++) {
+            FileConfigSection child = current.child("nest");
+            current.set("nest", child);
+            current = child;
+        }
+
+        lang.execute(root, new Scope("budget").budgetedScope("budget", new Budget(5, 5, null)));
+        checkExceeded(lang, root, new Budget(4, 0, null), BudgetExceededException.Reason.INVOCATIONS);
+        checkExceeded(lang, root, new Budget(0, 4, null), BudgetExceededException.Reason.DEPTH);
+        Budget cancelled = new Budget(0, 0, null);
+        cancelled.cancel();
+        checkExceeded(lang, root, cancelled, BudgetExceededException.Reason.CANCELLED);
+
+        // Continuations of asynchronous executions enter and exit the same budget on other threads
+        Budget shared = new Budget(0, 2, null);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 200_000; j++) {
+                    try {
+                        shared.enter();
+                    } catch (BudgetExceededException e) {
+                        continue;
+                    }
+                    shared.exit();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        shared.enter();
+        shared.enter();
+        try {
+            shared.enter();
+            check(false, "the depth is back to zero once every thread exited");
+        } catch (BudgetExceededException e) {
+            check(e.reason() == BudgetExceededException.Reason.DEPTH, "the depth does not drift across threads");
+        }
+    }
+
+    private static void checkExceeded(ConfigLang lang, ConfigSection section, Budget budget, BudgetExceededException.Reason reason) {
+        try {
+            lang.execute(section, new Scope("budget").budgetedScope("budget", budget));
+            check(false, "the execution exceeds its budget with " + reason);
+        } catch (BudgetExceededException e) {
+            check(e.reason() == reason, "the execution exceeded its budget with " + e.reason() + " instead of " + reason);
+        }
+    }
+
+    private static void checkParallel() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("value", ConfigStructure.keyStructure("value")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                scope.variables().set("branch", section.getPath());
+                return section.getObject("value", null);
+            }
+        });
+        lang.submit(new ConfigStructure("nested", false) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return lang.executeChildrenParallel(section, scope);
+            }
+        });
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            FileConfigSection value = new FileConfigSection("root.value" + i, "value");
+            if (i == 1 || i == 4) {
+                expected.add(null);
+            } else {
+                value.set("value", i);
+                expected.add(i);
+            }
+            root.set("value" + i, value);
+        }
+        FileConfigSection nested = new FileConfigSection("root.nested", "nested");
+        for (int i = 0; i < 3; i++) {
+            FileConfigSection value = new FileConfigSection("root.nested.value" + i, "value");
+            value.set("value", 10 + i);
+            nested.set("value" + i, value);
+        }
+        root.set("nested", nested);
+        expected.add(Arrays.asList(10, 11, 12));
+
+        ExecutorService executor = Executors.newFixedThreadPool(1, DAEMON);
+        ExecutorService caller = Executors.newSingleThreadExecutor(DAEMON);
+        lang.setExecutor(executor);
+        try {
+            Scope scope = new Scope("parallel");
+            List<String> errors = new ArrayList<>();
+            CompletableFuture<List<Object>> results = CompletableFuture.supplyAsync(() -> lang.executeChildrenParallel(root, errors::add, scope), caller);
+            check(results.get(10, TimeUnit.SECONDS).equals(expected), "results are in the order of the children, also when nested on a single thread");
+            check(errors.equals(Arrays.asList(
+                    lang.get("value").orElseThrow().matches(root.getConfigSection("value1").orElseThrow()),
+                    lang.get("value").orElseThrow().matches(root.getConfigSection("value4").orElseThrow()))), "errors are reported in the order of the children");
+            check(!scope.variables().exists("branch"), "every branch runs in its own child scope");
+        } catch (TimeoutException e) {
+            check(false, "nested parallel sections do not deadlock on a bounded executor");
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            executor.shutdownNow();
+            caller.shutdownNow();
+        }
+    }
+
+    private static void checkAsyncProfiler() {
+        CountDownLatch release = new CountDownLatch(1);
+        ConfigLang lang = snapshotLanguage();
+        lang.submit(new ConfigStructure("wait", false) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        ScriptProfiler profiler = new ScriptProfiler();
+        lang.setInstrumentation(profiler);
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        FileConfigSection wait = root.child("wait");
+        root.set("wait", wait);
+        FileConfigSection greet = new FileConfigSection("greet", "greet");
+
+        // The async execution is still running while the thread that started it executes another section
+        CompletableFuture<Object> future = lang.executeAsync(wait, new Scope("async"));
+        check("Hello null".equals(lang.execute(greet, new Scope("sync"))), "the section is executed while the async one runs");
+        release.countDown();
+        future.join();
+
+        check(profiler.paths().get("root.wait").executions() == 1, "the async execution is profiled once it completes");
+        check(profiler.collapsed(ScriptProfiler.Weight.TIME).contains("root.wait "), "the async execution is a stack of its own");
+        check(profiler.collapsed(ScriptProfiler.Weight.TIME).lines().noneMatch(line -> line.startsWith("root.wait;")),
+                "the async execution does not stay on the stack of the thread that started it");
+    }
+
+    private static void checkTiering() {
+        ConfigLang lang = snapshotLanguage(ConfigStructure.keyStructure("message"));
+        lang.submit(new ConfigStructure("trace", false) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return Arrays.stream(new Throwable().getStackTrace()).anyMatch(frame -> frame.getClassName().startsWith(PlanCompiler.class.getName()));
+            }
+        });
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        FileConfigSection greet = root.child("greet");
+        greet.set("message", "tier");
+        root.set("greet", greet);
+        FileConfigSection group = root.child("group");
+        FileConfigSection invalid = group.child("greet");
+        group.set("greet", invalid);
+        FileConfigSection trace = group.child("trace");
+        group.set("trace", trace);
+        root.set("group", group);
+        root.set("trace", root.child("trace"));
+
+        CompiledProgram program = lang.compile(root);
+        List<Object> expected = program.executeChildrenRecursive(new Scope("tier"));
+        check(expected.equals(Arrays.asList("Hello tier", false)), "the program walks the tree before it is planned");
+
+        lang.setTieringThreshold(2);
+        program.executeChildrenRecursive(new Scope("tier"));
+        List<Object> planned = program.executeChildrenRecursive(new Scope("tier"));
+        check(program.isPlanned(), "the program is planned once it is hot");
+        check(planned.equals(Arrays.asList("Hello tier", true)), "the planned program runs in the compiled plan and has the same results");
+        check(program.executeChildren(new Scope("tier")).equals(Arrays.asList("Hello tier", null, true)), "the children are planned separately");
+        CompiledProgram single = lang.compile(greet);
+        for (int i = 0; i < 3; i++) {
+            check("Hello tier".equals(single.execute(new Scope("tier"))), "the root has the same result when it is planned");
+        }
+        check(single.isPlanned(), "the root is planned on its own");
+
+        Budget budget = new Budget(0, 0, null);
+        program.executeChildrenRecursive(new Scope("tier").budgetedScope("tier", budget));
+        check(budget.invocations() == 4, "every planned section is counted by a budget");
+    }
+
+    private static void checkDeepTree() {
+        int depth = 100_000;
+        List<Object> results = new ArrayList<>();
+
+        // The paths are not derived from the parents, which would make them quadratic in the depth
+        HashMapConfigSection root = new HashMapConfigSection("deep", "root");
+        HashMapConfigSection section = root;
+        for (int i = 0; i < depth; i++) {
+            HashMapConfigSection child = new HashMapConfigSection("deep", "n");
+            section.set("n", child);
+            section = child;
+        }
+        HashMapConfigSection record = new HashMapConfigSection("deep", "record");
+        record.set("message", "deep");
+        section.set("record", record);
+
+        CompiledProgram program = deepLanguage(results).compile(root);
+        program.executeChildrenRecursive(new Scope("deep"));
+        check(results.equals(Collections.singletonList("deep")), "a deep tree is compiled and executed");
+        checkDeepTreeString(root, depth);
+
+        CompactConfigSection compact = CompactConfigSection.of(root);
+        ConfigSection leaf = compact;
+        for (int i = 0; i < depth; i++) leaf = leaf.getConfigSection("n").orElseThrow();
+        check("deep".equals(leaf.getConfigSection("record").orElseThrow().getObject("message", null)), "a deep tree is made compact");
+
+        try {
+            File file = File.createTempFile("deep", ".snapshot");
+            file.deleteOnExit();
+            ProgramSnapshot.write(program, file.toPath());
+            results.clear();
+            ProgramSnapshot.load(deepLanguage(results), file.toPath()).executeChildrenRecursive(new Scope("deep"));
+            check(results.equals(Collections.singletonList("deep")), "a deep tree is stored in a snapshot");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Scope scope = new Scope("deep");
+        scope.variables().set("root", 1);
+        for (int i = 0; i < depth; i++) scope = scope.childScope("deep");
+        scope.variables().set("leaf", 2);
+        Scope isolated = scope.isolatedScope("isolated");
+        check(isolated.variables().getRaw("root").equals(Optional.of(1)) && isolated.variables().getRaw("leaf").equals(Optional.of(2)),
+                "the variables of a deep scope are copied");
+    }
+
+    /**
+     * The output grows with the square of the depth, so only the bottom of the tree is printed, on a thread with a small stack.
+     * */
+    private static void checkDeepTreeString(ConfigSection root, int depth) {
+        int printed = 2_000;
+        ConfigSection section = root;
+        for (int i = 0; i < depth - printed; i++) section = section.getConfigSection("n").orElseThrow();
+
+        ConfigSection bottom = section;
+        String[] tree = new String[1];
+        Thread thread = new Thread(null, () -> tree[0] = bottom.treeString(), "deep", 1 << 16);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        check(tree[0] != null && tree[0].contains("record (Section)"), "a deep tree is printed");
+    }
+
+    private static ConfigLang deepLanguage(List<Object> results) {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("record", ConfigStructure.keyStructure("message")) {
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                results.add(section.getObject("message", null));
+                return null;
+            }
+        });
+        return lang;
+    }
+
+    private static void checkCompiledEquivalence() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("sum", ConfigStructure.keyStructure("left"), ConfigStructure.keyStructure("right")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                Object left = variableOrValue(section.getObject("left", null), scope);
+                Object right = variableOrValue(section.getObject("right", null), scope);
+                return left instanceof Number && right instanceof Number ? ((Number) left).intValue() + ((Number) right).intValue() : null;
+            }
+        });
+
+        HashMapConfigSection root = new HashMapConfigSection("root", "root");
+        HashMapConfigSection constant = new HashMapConfigSection("root.constant", "sum");
+        constant.set("left", 2);
+        constant.set("right", 3);
+        root.set("constant", constant);
+        HashMapConfigSection variable = new HashMapConfigSection("root.variable", "sum");
+        variable.set("left", "$x");
+        variable.set("right", 4);
+        root.set("variable", variable);
+        HashMapConfigSection invalid = new HashMapConfigSection("root.invalid", "sum");
+        invalid.set("left", 1);
+        root.set("invalid", invalid);
+        HashMapConfigSection group = new HashMapConfigSection("root.group", "group");
+        HashMapConfigSection nested = new HashMapConfigSection("root.group.nested", "sum");
+        nested.set("left", "$x");
+        nested.set("right", "$x");
+        group.set("nested", nested);
+        root.set("group", group);
+
+        CompiledProgram program = lang.compile(root, error -> { });
+        Scope scope = lang.newScope("compiled");
+        scope.variables().set("x", 10);
+
+        for (int tier = 0; tier < 2; tier++) {
+            List<String> interpretedErrors = new ArrayList<>();
+            List<String> compiledErrors = new ArrayList<>();
+            check(lang.executeChildren(root, interpretedErrors::add, scope).equals(lang.executeChildren(program.section(), compiledErrors::add, scope)),
+                    "compiled children have the same results as interpreted children");
+            check(interpretedErrors.equals(compiledErrors) && interpretedErrors.size() == 1, "compiled children report the same errors as interpreted children");
+            check(lang.executeChildrenRecursive(root, error -> { }, scope).equals(program.executeChildrenRecursive(scope)),
+                    "the compiled tree has the same results as the interpreted tree");
+            check(lang.executeChildren(root, error -> { }, scope).equals(program.executeChildren(scope)),
+                    "the compiled program has the same results as the interpreted children");
+            check(Integer.valueOf(14).equals(lang.execute(variable, scope)) && Integer.valueOf(14).equals(lang.compile(variable).execute(scope)),
+                    "a compiled section reads the variables of the scope");
+
+            // The second round runs the planned program
+            lang.setTieringThreshold(1);
+            program.executeChildren(scope);
+            program.executeChildrenRecursive(scope);
+        }
+        check(program.isPlanned(), "the program is planned for the second round");
+    }
+
+    private static Object variableOrValue(Object value, Scope scope) {
+        if (value instanceof String && ((String) value).startsWith("$")) return scope.variables().parseVariableRaw((String) value).orElse(null);
+        return value;
+    }
+
+    private static void checkChildScopes() {
+        Scope parent = new Scope("parent");
+        parent.variables().set("shared", 1);
+        parent.variables().set("shadowed", 1);
+        Scope child = parent.childScope("child");
+        child.variables().set("shadowed", 2);
+        child.variables().set("own", 3);
+        check(child.variables().getRaw("shared").equals(Optional.of(1)), "a child scope sees the variables of its parent");
+        check(child.variables().getRaw("shadowed").equals(Optional.of(2)) && parent.variables().getRaw("shadowed").equals(Optional.of(1)),
+                "a child scope shadows the variables of its parent without changing them");
+        check(!parent.variables().exists("own"), "the parent does not see the variables of its child");
+
+        parent.variables().set("shared", 4);
+        check(child.variables().getRaw("shared").equals(Optional.of(4)), "a child scope sees later changes of its parent");
+        child.variables().remove("shared");
+        check(!child.variables().exists("shared") && parent.variables().getRaw("shared").equals(Optional.of(4)),
+                "removing a variable in a child scope hides it without removing it from the parent");
+
+        Scope isolated = child.isolatedScope("isolated");
+        check(isolated.variables().getRaw("shadowed").equals(Optional.of(2)) && !isolated.variables().exists("shared"),
+                "an isolated scope copies the variables visible from its scope");
+        isolated.variables().set("shadowed", 5);
+        parent.variables().set("later", 6);
+        check(child.variables().getRaw("shadowed").equals(Optional.of(2)) && !isolated.variables().exists("later"),
+                "an isolated scope does not share later changes");
+
+        ConfigLang lang = new ConfigLang();
+        VariableSlot slot = lang.slot("shadowed");
+        Scope root = lang.newScope("root");
+        root.variables().set(slot, 1);
+        Scope slotChild = root.childScope("child");
+        slotChild.variables().set(slot, 2);
+        check(slotChild.variables().getRaw(slot).equals(Optional.of(2)) && root.variables().getRaw(slot).equals(Optional.of(1)),
+                "a child scope shadows the slots of its parent without changing them");
+        slotChild.variables().remove(slot);
+        check(!slotChild.variables().exists(slot) && root.variables().getRaw(slot).equals(Optional.of(1)),
+                "removing a slot in a child scope hides it without removing it from the parent");
+    }
+
+    private static void checkAccessors() {
+        check(VariableAccessor.compile("player's stats's health") == VariableAccessor.compile("player's stats's health"), "parsed accessors are cached");
+        check("player".equals(VariableAccessor.compile("player's stats's health").variable()) && "player".equals(VariableAccessor.compile("$player").variable()),
+                "accessors start at their variable");
+
+        Scope scope = new Scope("accessors");
+        scope.variables().set("player", new Player("alex", new Stats(20)));
+        scope.variables().set("empty", new Player("empty", null));
+        check(scope.variables().parseVariableRaw("player's stats's health").equals(Optional.of(20)), "fields are read along the accessor");
+        check(scope.variables().parseVariableRaw("$player").equals(scope.variables().getRaw("player")), "a $name accessor reads the variable");
+        check(scope.variables().parseVariableRaw("player's missing").isEmpty(), "a missing field is empty");
+        check(scope.variables().parseVariableRaw("player's secret").isEmpty(), "a field that is not public is empty");
+        check(scope.variables().parseVariableRaw("empty's stats's health").isEmpty(), "a null field on the way is empty");
+        check(scope.variables().parseVariableRaw("player's MAX_HEALTH").equals(Optional.of(100)), "static fields are read");
+
+        // The same step alternates between classes, each with its own getter
+        VariableAccessor name = VariableAccessor.compile("named's name");
+        for (int i = 0; i < 4; i++) {
+            Object named = i % 2 == 0 ? new Player("player" + i, null) : new Stats(i);
+            scope.variables().set("named", named);
+            Object expected = i % 2 == 0 ? "player" + i : "stats" + i;
+            check(name.get(scope.variables()).equals(Optional.of(expected)), "the getter of a field follows the class of the value");
+        }
+    }
+
+    public static final class Player {
+
+        public static final int MAX_HEALTH = 100;
+
+        public final String name;
+        public final Stats stats;
+        private final String secret = "secret";
+
+        private Player(String name, Stats stats) {
+            this.name = name;
+            this.stats = stats;
+        }
+    }
+
+    public static final class Stats {
+
+        public final int health;
+        public final String name;
+
+        private Stats(int health) {
+            this.health = health;
+            this.name = "stats" + health;
+        }
+    }
+
+    private static void checkConcurrentSubmit() {
+        int threads = 4;
+        int structures = 200;
+        ConfigLang lang = snapshotLanguage(ConfigStructure.keyStructure("message"));
+        FileConfigSection greet = new FileConfigSection("greet", "greet");
+        greet.set("message", "concurrent");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, DAEMON);
+        try {
+            List<CompletableFuture<Boolean>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                tasks.add(CompletableFuture.supplyAsync(() -> {
+                    boolean executed = true;
+                    for (int i = 0; i < structures; i++) {
+                        String key = "structure" + thread + "_" + i;
+                        lang.submit(new ConfigStructure(key, false) {
+                            @Override
+                            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                                return null;
+                            }
+                        });
+                        executed &= lang.knows(key) && "Hello concurrent".equals(lang.execute(greet, new Scope(key)));
+                    }
+                    return executed;
+                }, executor));
+            }
+            for (CompletableFuture<Boolean> task : tasks) {
+                check(task.get(10, TimeUnit.SECONDS), "structures are visible to the thread that submitted them while others execute");
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < structures; i++) {
+                check(lang.get("structure" + t + "_" + i).isPresent(), "no structure submitted concurrently is lost");
+            }
+        }
+    }
+
+    private static void checkStreamChildren() {
+        List<Object> executed = new ArrayList<>();
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("value", ConfigStructure.keyStructure("value")) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                Object value = section.getObject("value", null);
+                executed.add(value);
+                return value;
+            }
+        });
+
+        FileConfigSection root = new FileConfigSection("root", "root");
+        for (int i = 0; i < 4; i++) {
+            FileConfigSection value = new FileConfigSection("root.value" + i, "value");
+            value.set("value", i != 1);
+            root.set("value" + i, value);
+        }
+
+        for (ConfigSection section : Arrays.asList(root, lang.compile(root).section())) {
+            executed.clear();
+            Iterator<Object> results = lang.streamChildren(section, new Scope("stream")).iterator();
+            check(executed.isEmpty(), "no child is executed before a result is pulled");
+            check(Boolean.TRUE.equals(results.next()) && executed.size() == 1, "a child is executed when its result is pulled");
+
+            executed.clear();
+            boolean all = lang.streamChildren(section, new Scope("stream")).allMatch(Boolean.TRUE::equals);
+            check(!all && executed.equals(Arrays.asList(true, false)), "the children after the first false are skipped by allMatch");
+        }
+    }
+
+    private static void checkExecutionMetrics() {
+        ConfigLang lang = snapshotLanguage(ConfigStructure.keyStructure("message"));
+        ExecutionMetrics metrics = new ExecutionMetrics();
+        lang.setInstrumentation(metrics);
+
+        FileConfigSection greet = new FileConfigSection("greet", "greet");
+        greet.set("message", "metrics");
+        FileConfigSection invalid = new FileConfigSection("invalid", "greet");
+        for (int i = 0; i < 3; i++) lang.execute(greet, error -> { }, new Scope("metrics"));
+        lang.execute(invalid, error -> { }, new Scope("metrics"));
+        lang.compile(greet).execute(new Scope("metrics"));
+
+        // Every execution through the lang validates the section, the compiled program was validated once when compiled
+        ExecutionMetrics.StructureMetrics greetMetrics = metrics.get("greet");
+        check(metrics.structures().keySet().equals(Collections.singleton("greet")), "only executed structures have metrics");
+        check(greetMetrics.executions() == 5 && greetMetrics.failures() == 1, "executions and failed executions are counted");
+        check(greetMetrics.validations() == 5 && greetMetrics.validationFailures() == 1, "validations and failed validations are counted");
+        check(Arrays.stream(greetMetrics.histogram()).sum() == 5 && greetMetrics.totalNanos() > 0, "every execution is recorded in the histogram");
+        check(greetMetrics.percentile(0.5) <= greetMetrics.percentile(1), "percentiles grow with the percentile");
+
+        metrics.reset();
+        check(metrics.get("greet") == null && metrics.structures().isEmpty(), "reset removes all metrics");
+    }
+
+    private static void checkBatchOrder() {
+        ConfigLang lang = new ConfigLang();
+        lang.submit(new ConfigStructure("index", false) {
+            @Override
+            public boolean returnsData() {
+                return true;
+            }
+
+            @Override
+            protected Object run(ConfigSection section, Scope scope, Object... args) {
+                return scope.variables().getRaw("index").orElse(null);
+            }
+        });
+        FileConfigSection index = new FileConfigSection("index", "index");
+        CompiledProgram program = lang.compile(index);
+
+        // Batches are split into chunks of at least 64 scopes, one per thread of the pool
+        ForkJoinPool pool = new ForkJoinPool(3);
+        lang.setExecutor(pool);
+        try {
+            for (int size : new int[]{1, 63, 64, 65, 128, 129, 200}) {
+                List<Scope> scopes = new ArrayList<>();
+                Object[] expected = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    Scope scope = new Scope("batch" + i);
+                    scope.variables().set("index", i);
+                    scopes.add(scope);
+                    expected[i] = i;
+                }
+
+                for (boolean parallel : new boolean[]{false, true}) {
+                    check(Arrays.equals(lang.executeBatch(index, error -> { }, scopes, parallel), expected),
+                            "batch results are in the order of the scopes, for " + size + " scopes");
+                    check(Arrays.equals(program.executeBatch(error -> { }, scopes, parallel), expected),
+                            "compiled batch results are in the order of the scopes, for " + size + " scopes");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void checkSlots() {
+        ConfigLang lang = new ConfigLang();
+        VariableSlot slot = lang.slot("x");
+        Scope scope = lang.newScope("slots");
+        VariableStorage variables = scope.variables();
+
+        variables.set(slot, "slot");
+        check(variables.getRaw("x").equals(Optional.of("slot")) && variables.exists("x"), "a slot write is read by name");
+        variables.set("x", "name");
+        check(variables.getRaw(slot).equals(Optional.of("name")), "a write by name is read through the slot");
+
+        variables.setDouble(slot, 2.5);
+        check(variables.getDouble("x", 0) == 2.5 && variables.getRaw("x").equals(Optional.of(2.5)), "an unboxed slot write is read by name");
+        variables.setLong("x", 7);
+        check(variables.getLong(slot, 0) == 7 && variables.getRaw(slot).equals(Optional.of(7L)), "an unboxed write by name is read through the slot");
+        variables.setBoolean(slot, true);
+        check(variables.getBoolean("x", false) && variables.parseVariableRaw("$x").equals(Optional.of(true)), "accessors read the slot");
+
+        Scope child = scope.childScope("child");
+        child.variables().set("x", "child");
+        check(child.variables().getRaw(slot).equals(Optional.of("child")) && variables.getRaw("x").equals(Optional.of(true)),
+                "a write by name in a child scope shadows the slot of the parent");
+
+        variables.remove(slot);
+        check(!variables.exists("x") && variables.getRaw("x").isEmpty(), "a removed slot is removed by name");
+
+        // Storages without the layout fall back to names
+        Scope plain = new Scope("plain");
+        plain.variables().set(slot, "plain");
+        check(plain.variables().getRaw("x").equals(Optional.of("plain")) && plain.variables().getRaw(slot).equals(Optional.of("plain")),
+                "slots of another layout are looked up by name");
+    }
+
+    private static void checkValidationCache(ConfigLang lang, ConfigSection section) {
+        ConfigStructure structure = lang.get("if").orElseThrow();
+        ConfigStructure other = lang.get("exec").orElseThrow();
+
+        check(structure.matches(section) == null, "if matches its section");
+        check(other.matches(section) != null, "exec does not match an if section");
+        // Validating against another structure must not evict the first validation
+        check(section.validations.length == 2, "validations of both structures are cached");
+        Object cached = section.validations;
+        structure.validate(section);
+        check(section.validations == cached, "cached validation is reused");
+
+        section.set("counter", 1);
+        check(structure.matches(section) == null, "validation is repeated after a modification");
+
+        ConfigSection untracked = new HashMapConfigSection("exec", "exec") {
+            @Override
+            protected boolean tracksModifications() {
+                return false;
+            }
+        };
+        check(other.matches(untracked) != null, "exec requires a message");
+        check(untracked.validations.length == 0, "validations of sections that do not track modifications are not cached");
+        untracked.set("message", "tracked");
+        check(other.matches(untracked) == null, "sections that do not track modifications are validated again");
     }
 
 }
@@ -259,6 +1456,12 @@ class HashMapConfigSection extends ConfigSection {
     @Override
     public void set(String key, Object value) {
         this.map.put(key, value);
+        this.modified();
+    }
+
+    @Override
+    protected boolean tracksModifications() {
+        return true;
     }
 
     @Override